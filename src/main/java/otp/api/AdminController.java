@@ -1,13 +1,12 @@
 package otp.api;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
-import otp.dao.impl.OtpCodeDaoImpl;
-import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
 import otp.model.User;
 import otp.service.AdminService;
 import otp.util.JsonUtil;
 import otp.util.HttpUtils;
+import otp.util.MetricsRegistry;
 
 import java.io.IOException;
 import java.net.URI;
@@ -21,15 +20,21 @@ import java.util.List;
  *   <li>PATCH  /admin/config     — изменить длину и время жизни OTP-кодов</li>
  *   <li>GET    /admin/users      — получить список всех пользователей без админов</li>
  *   <li>DELETE /admin/users/{id} — удалить пользователя и связанные OTP-коды</li>
+ *   <li>GET    /admin/metrics    — получить снимок метрик компонентов сервиса</li>
  * </ul>
  * </p>
  */
 public class AdminController {
-    private final AdminService adminService = new AdminService(
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
-            new OtpCodeDaoImpl()
-    );
+    private static final ObjectReader CONFIG_READER = JsonUtil.reader(ConfigRequest.class);
+
+    private final AdminService adminService;
+
+    /**
+     * @param adminService сервис административных операций
+     */
+    public AdminController(AdminService adminService) {
+        this.adminService = adminService;
+    }
 
     /**
      * Обрабатывает HTTP PATCH запрос на изменение конфигурации OTP.
@@ -59,7 +64,7 @@ public class AdminController {
         }
 
         try {
-            ConfigRequest req = JsonUtil.fromJson(exchange.getRequestBody(), ConfigRequest.class);
+            ConfigRequest req = CONFIG_READER.readValue(exchange.getRequestBody());
             adminService.updateOtpConfig(req.length, req.ttlSeconds);
             HttpUtils.sendEmptyResponse(exchange, 204);
         } catch (IllegalArgumentException e) {
@@ -87,8 +92,7 @@ public class AdminController {
         }
         try {
             List<User> users = adminService.getAllUsersWithoutAdmins();
-            String json = JsonUtil.toJson(users);
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            HttpUtils.streamJson(exchange, 200, users);
         } catch (Exception e) {
             HttpUtils.sendError(exchange, 500, "Internal server error");
         }
@@ -127,6 +131,30 @@ public class AdminController {
         }
     }
 
+    /**
+     * Обрабатывает HTTP GET запрос для получения метрик сервиса
+     * (пул соединений БД и другие зарегистрированные компоненты).
+     * <ul>
+     *   <li>200 OK — возвращает JSON-объект с метриками</li>
+     *   <li>405 Method Not Allowed — если метод не GET</li>
+     *   <li>500 Internal Server Error — другие ошибки</li>
+     * </ul>
+     *
+     * @param exchange HTTP-контекст текущего запроса
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void metrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        try {
+            HttpUtils.streamJson(exchange, 200, MetricsRegistry.snapshot());
+        } catch (Exception e) {
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
     /**
      * DTO для разбора JSON тела PATCH запроса /admin/config.
      */
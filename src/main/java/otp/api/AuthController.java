@@ -1,15 +1,15 @@
 package otp.api;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
-import otp.dao.impl.UserDaoImpl;
 import otp.model.UserRole;
 import otp.service.UserService;
 import otp.util.JsonUtil;
 import otp.util.HttpUtils;
-import otp.util.JwtUtils;  // Импортируем JwtUtils
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Контроллер аутентификации и регистрации пользователей.
@@ -20,7 +20,17 @@ import java.util.Map;
  * </ul>
  */
 public class AuthController {
-    private final UserService userService = new UserService(new UserDaoImpl());
+    private static final ObjectReader REGISTER_READER = JsonUtil.reader(RegisterRequest.class);
+    private static final ObjectReader LOGIN_READER = JsonUtil.reader(LoginRequest.class);
+
+    private final UserService userService;
+
+    /**
+     * @param userService сервис регистрации и аутентификации пользователей
+     */
+    public AuthController(UserService userService) {
+        this.userService = userService;
+    }
 
     /**
      * Обрабатывает HTTP POST запрос на регистрацию пользователя.
@@ -31,6 +41,7 @@ public class AuthController {
      *   <li>409 Conflict — если имя занято или администратор уже существует</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>405 Method Not Allowed — если метод не POST</li>
+     *   <li>503 Service Unavailable — если очередь хеширования паролей заполнена</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -49,7 +60,7 @@ public class AuthController {
         }
 
         try {
-            RegisterRequest req = JsonUtil.fromJson(exchange.getRequestBody(), RegisterRequest.class);
+            RegisterRequest req = REGISTER_READER.readValue(exchange.getRequestBody());
 
             // Проверка, не существует ли уже администратор
             if ("ADMIN".equals(req.role) && userService.adminExists()) {
@@ -59,6 +70,8 @@ public class AuthController {
 
             userService.register(req.username, req.password, UserRole.valueOf(req.role));
             HttpUtils.sendEmptyResponse(exchange, 201);
+        } catch (RejectedExecutionException e) {
+            HttpUtils.sendError(exchange, 503, "Server is busy, try again later");
         } catch (IllegalArgumentException | IllegalStateException e) {
             HttpUtils.sendError(exchange, 409, e.getMessage());
         } catch (Exception e) {
@@ -75,6 +88,7 @@ public class AuthController {
      *   <li>401 Unauthorized — если логин или пароль неверны</li>
      *   <li>415 Unsupported Media Type — если Content-Type некорректен</li>
      *   <li>405 Method Not Allowed — если метод не POST</li>
+     *   <li>503 Service Unavailable — если очередь хеширования паролей заполнена</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
      * </ul>
      *
@@ -93,14 +107,15 @@ public class AuthController {
         }
 
         try {
-            LoginRequest req = JsonUtil.fromJson(exchange.getRequestBody(), LoginRequest.class);
+            LoginRequest req = LOGIN_READER.readValue(exchange.getRequestBody());
             String token = userService.login(req.username, req.password);
             if (token == null) {
                 HttpUtils.sendError(exchange, 401, "Unauthorized");
                 return;
             }
-            String json = JsonUtil.toJson(Map.of("token", token)); // Используем сгенерированный токен
-            HttpUtils.sendJsonResponse(exchange, 200, json);
+            HttpUtils.sendJson(exchange, 200, Map.of("token", token));
+        } catch (RejectedExecutionException e) {
+            HttpUtils.sendError(exchange, 503, "Server is busy, try again later");
         } catch (IllegalArgumentException e) {
             HttpUtils.sendError(exchange, 401, e.getMessage());
         } catch (Exception e) {
@@ -5,8 +5,8 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.Filter.Chain;
 import otp.model.User;
 import otp.model.UserRole;
+import otp.util.AuthMode;
 import otp.util.HttpUtils;
-import otp.util.TokenManager;
 
 import java.io.IOException;
 
@@ -14,7 +14,8 @@ import java.io.IOException;
  * Фильтр аутентификации и авторизации для HTTP-контроллеров.
  * <p>
  * Проверяет наличие заголовка Authorization: Bearer &lt;token&gt;,
- * валидирует токен через TokenManager и проверяет требуемую роль.
+ * валидирует токен выбранным способом (AuthMode: сессия в TokenManager или
+ * подписанный JWT, проверяемый без обращения к хранилищу) и проверяет требуемую роль.
  * Если проверка проходит, сохраняет объект User в
  * exchange.setAttribute("user", user) и передаёт управление дальше.
  * Иначе возвращает соответствующий HTTP-статус:
@@ -26,12 +27,15 @@ import java.io.IOException;
  */
 public class AuthFilter extends Filter {
     private final UserRole requiredRole;
+    private final AuthMode authMode;
 
     /**
      * @param requiredRole минимальная роль пользователя для доступа к ресурсу
+     * @param authMode     способ проверки токена
      */
-    public AuthFilter(UserRole requiredRole) {
+    public AuthFilter(UserRole requiredRole, AuthMode authMode) {
         this.requiredRole = requiredRole;
+        this.authMode = authMode;
     }
 
     @Override
@@ -48,7 +52,7 @@ public class AuthFilter extends Filter {
         }
         String token = authHeader.substring(7);
         // Получаем пользователя по токену
-        User user = TokenManager.getUser(token);
+        User user = authMode.authenticate(token);
         if (user == null) {
             HttpUtils.sendError(exchange, 401, "Invalid or expired token");
             return;
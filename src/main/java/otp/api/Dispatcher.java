@@ -3,6 +3,7 @@ package otp.api;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpContext;
 import otp.model.UserRole;
+import otp.util.AuthMode;
 
 /**
  * Dispatcher отвечает за регистрацию HTTP-контекстов (маршрутов) и их привязку к методам контроллеров.
@@ -12,17 +13,36 @@ import otp.model.UserRole;
  *   <li>POST   /register           → AuthController.handleRegister()  (публичный)</li>
  *   <li>POST   /login              → AuthController.handleLogin()     (публичный)</li>
  *   <li>POST   /otp/generate       → UserController.generateOtp()     (роль USER)</li>
+ *   <li>POST   /otp/generate/batch → UserController.generateOtpBatch() (роль USER)</li>
  *   <li>POST   /otp/validate       → UserController.validateOtp()     (роль USER)</li>
+ *   <li>POST   /otp/validate/batch → UserController.validateOtpBatch() (роль USER)</li>
  *   <li>PATCH  /admin/config       → AdminController.updateOtpConfig() (роль ADMIN)</li>
  *   <li>GET    /admin/users        → AdminController.listUsers()       (роль ADMIN)</li>
  *   <li>DELETE /admin/users/{id}   → AdminController.deleteUser()      (роль ADMIN)</li>
+ *   <li>GET    /admin/metrics      → AdminController.metrics()         (роль ADMIN)</li>
  * </ul>
+ * Публичные маршруты и маршруты генерации/проверки OTP дополнительно защищены
+ * RateLimitFilter (после AuthFilter, чтобы лимит считался по пользователю).
  * </p>
  */
 public class Dispatcher {
-    private final AuthController authController = new AuthController();
-    private final UserController userController = new UserController();
-    private final AdminController adminController = new AdminController();
+    private final AuthController authController;
+    private final UserController userController;
+    private final AdminController adminController;
+    private final AuthMode authMode;
+    private final RateLimits rateLimits;
+
+    public Dispatcher(AuthController authController,
+                      UserController userController,
+                      AdminController adminController,
+                      AuthMode authMode,
+                      RateLimits rateLimits) {
+        this.authController = authController;
+        this.userController = userController;
+        this.adminController = adminController;
+        this.authMode = authMode;
+        this.rateLimits = rateLimits;
+    }
 
     /**
      * Регистрация всех маршрутов и подключение фильтров аутентификации.
@@ -31,18 +51,28 @@ public class Dispatcher {
      */
     public void registerRoutes(HttpServer server) {
         // Публичные маршруты
-        server.createContext("/register", authController::handleRegister);
-        server.createContext("/login",    authController::handleLogin);
+        HttpContext registerCtx = server.createContext("/register", authController::handleRegister);
+        limit(registerCtx, "register", 10, 5);
+        HttpContext loginCtx = server.createContext("/login", authController::handleLogin);
+        limit(loginCtx, "login", 20, 5);
 
         // Маршруты для пользователей (роль USER)
         HttpContext genCtx = server.createContext("/otp/generate", userController::generateOtp);
-        genCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        genCtx.getFilters().add(new AuthFilter(UserRole.USER, authMode));
+        limit(genCtx, "generate", 30, 5);
+        HttpContext genBatchCtx = server.createContext("/otp/generate/batch", userController::generateOtpBatch);
+        genBatchCtx.getFilters().add(new AuthFilter(UserRole.USER, authMode));
+        limit(genBatchCtx, "generateBatch", 10, 2);
         HttpContext valCtx = server.createContext("/otp/validate", userController::validateOtp);
-        valCtx.getFilters().add(new AuthFilter(UserRole.USER));
+        valCtx.getFilters().add(new AuthFilter(UserRole.USER, authMode));
+        limit(valCtx, "validate", 120, 20);
+        HttpContext valBatchCtx = server.createContext("/otp/validate/batch", userController::validateOtpBatch);
+        valBatchCtx.getFilters().add(new AuthFilter(UserRole.USER, authMode));
+        limit(valBatchCtx, "validateBatch", 30, 5);
 
         // Маршруты для администратора (роль ADMIN)
         HttpContext configCtx = server.createContext("/admin/config", adminController::updateOtpConfig);
-        configCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        configCtx.getFilters().add(new AuthFilter(UserRole.ADMIN, authMode));
         HttpContext usersCtx = server.createContext("/admin/users", exchange -> {
             String method = exchange.getRequestMethod();
             if ("GET".equalsIgnoreCase(method)) {
@@ -53,6 +83,16 @@ public class Dispatcher {
                 exchange.sendResponseHeaders(405, -1);
             }
         });
-        usersCtx.getFilters().add(new AuthFilter(UserRole.ADMIN));
+        usersCtx.getFilters().add(new AuthFilter(UserRole.ADMIN, authMode));
+        HttpContext metricsCtx = server.createContext("/admin/metrics", adminController::metrics);
+        metricsCtx.getFilters().add(new AuthFilter(UserRole.ADMIN, authMode));
+    }
+
+    // Добавляет в конец цепочки фильтр ограничения частоты, если он включён для маршрута
+    private void limit(HttpContext ctx, String name, int defaultPerMinute, int defaultBurst) {
+        RateLimitFilter filter = rateLimits.filter(name, defaultPerMinute, defaultBurst);
+        if (filter != null) {
+            ctx.getFilters().add(filter);
+        }
     }
 }
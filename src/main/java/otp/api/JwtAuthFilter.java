@@ -1,5 +1,6 @@
 package otp.api;
 
+import otp.model.User;
 import otp.util.JwtUtils;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -34,10 +35,11 @@ public class JwtAuthFilter implements Filter {
         // Проверка наличия и валидности токена
         if (token != null && token.startsWith("Bearer ")) {
             token = token.substring(7); // Убираем "Bearer " из начала токена
-            if (JwtUtils.validateToken(token)) {
+            User user = JwtUtils.verify(token);
+            if (user != null) {
                 // Если токен валидный, передаем запрос дальше
-                String username = JwtUtils.extractUsername(token);
-                httpRequest.setAttribute("username", username);
+                httpRequest.setAttribute("user", user);
+                httpRequest.setAttribute("username", user.getUsername());
                 chain.doFilter(request, response);
             } else {
                 // Если токен невалидный, возвращаем ошибку 401
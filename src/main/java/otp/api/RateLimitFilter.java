@@ -0,0 +1,84 @@
+package otp.api;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import otp.model.User;
+import otp.util.HttpUtils;
+import otp.util.RateLimiter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фильтр ограничения частоты запросов к маршруту.
+ * <p>
+ * Ключ — id пользователя, если запрос уже прошёл AuthFilter (фильтр ставится после него),
+ * иначе адрес клиента: первый адрес из X-Forwarded-For при trustForwardedFor, иначе адрес
+ * TCP-соединения. При превышении лимита отвечает 429 Too Many Requests с заголовком
+ * Retry-After (секунды до появления токена).
+ * </p>
+ */
+public class RateLimitFilter extends Filter {
+    private final String route;
+    private final RateLimiter limiter;
+    private final boolean trustForwardedFor;
+
+    /**
+     * @param route             имя маршрута (для описания фильтра)
+     * @param limiter           ограничитель маршрута
+     * @param trustForwardedFor брать адрес клиента из X-Forwarded-For (за балансировщиком)
+     */
+    public RateLimitFilter(String route, RateLimiter limiter, boolean trustForwardedFor) {
+        this.route = route;
+        this.limiter = limiter;
+        this.trustForwardedFor = trustForwardedFor;
+    }
+
+    @Override
+    public String description() {
+        return "Ограничение частоты запросов (" + route + ")";
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long waitNanos = limiter.tryAcquire(key(exchange));
+        if (waitNanos > 0) {
+            sendTooManyRequests(exchange, waitNanos);
+            return;
+        }
+        chain.doFilter(exchange);
+    }
+
+    /**
+     * Отвечает 429 с Retry-After, округлённым вверх до секунд.
+     */
+    static void sendTooManyRequests(HttpExchange exchange, long waitNanos) throws IOException {
+        long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+        HttpUtils.sendError(exchange, 429, "Too many requests");
+    }
+
+    /**
+     * @return ключ корзины аутентифицированного пользователя
+     */
+    static String userKey(Long userId) {
+        return "user:" + userId;
+    }
+
+    private String key(HttpExchange exchange) {
+        Object user = exchange.getAttribute("user");
+        if (user instanceof User) {
+            return userKey(((User) user).getId());
+        }
+        if (trustForwardedFor) {
+            String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isBlank()) {
+                int comma = forwarded.indexOf(',');
+                return "ip:" + (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+            }
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return "ip:" + (remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString());
+    }
+}
@@ -0,0 +1,106 @@
+package otp.api;
+
+import otp.config.AppConfig;
+import otp.util.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничители частоты по маршрутам, настроенные из application.properties.
+ * <p>
+ * Для маршрута с именем name читаются ratelimit.&lt;name&gt;.perMinute и
+ * ratelimit.&lt;name&gt;.burst; perMinute = 0 (или ratelimit.enabled=false) отключает
+ * ограничение. Фоновый поток раз в ratelimit.sweepIntervalMs удаляет полностью
+ * восполнившиеся корзины всех маршрутов.
+ * </p>
+ */
+public class RateLimits {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimits.class);
+
+    private final boolean enabled = AppConfig.getBoolean("ratelimit.enabled", true);
+    private final boolean trustForwardedFor = AppConfig.getBoolean("ratelimit.trustForwardedFor", false);
+    private final int maxKeys = AppConfig.getInt("ratelimit.maxKeys", 100_000);
+    private final Map<String, RateLimiter> limiters = new LinkedHashMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ratelimit-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RateLimits() {
+        long sweepIntervalMs = AppConfig.getLong("ratelimit.sweepIntervalMs", 60_000);
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Создаёт фильтр для маршрута.
+     *
+     * @param name             имя маршрута в ключах ratelimit.&lt;name&gt;.*
+     * @param defaultPerMinute лимит по умолчанию, запросов в минуту на ключ
+     * @param defaultBurst     допустимая пачка по умолчанию
+     * @return фильтр или null, если ограничение маршрута отключено
+     */
+    public synchronized RateLimitFilter filter(String name, int defaultPerMinute, int defaultBurst) {
+        int perMinute = AppConfig.getInt("ratelimit." + name + ".perMinute", defaultPerMinute);
+        int burst = AppConfig.getInt("ratelimit." + name + ".burst", defaultBurst);
+        if (!enabled || perMinute <= 0) {
+            logger.info("Rate limit for {} is disabled", name);
+            return null;
+        }
+        RateLimiter limiter = new RateLimiter(perMinute, Math.max(1, burst), maxKeys);
+        limiters.put(name, limiter);
+        logger.info("Rate limit for {}: {} per minute, burst {}", name, perMinute, burst);
+        return new RateLimitFilter(name, limiter, trustForwardedFor);
+    }
+
+    /**
+     * Списывает с корзины маршрута name сразу permits токенов — по одному на элемент пакета,
+     * чтобы пакетный запрос расходовал тот же бюджет, что и столько же одиночных.
+     *
+     * @param name    имя маршрута, для которого уже создан фильтр
+     * @param key     ключ клиента (см. RateLimitFilter)
+     * @param permits число элементов
+     * @return 0, если списание прошло или ограничение маршрута отключено, иначе ожидание в наносекундах
+     */
+    public long tryAcquire(String name, String key, int permits) {
+        RateLimiter limiter;
+        synchronized (this) {
+            limiter = limiters.get(name);
+        }
+        return limiter != null ? limiter.tryAcquire(key, permits) : 0;
+    }
+
+    /**
+     * @return снимок счётчиков по маршрутам
+     */
+    public synchronized Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        limiters.forEach((name, limiter) -> m.put(name, limiter.metrics()));
+        return m;
+    }
+
+    /** Останавливает фоновую уборку */
+    public void stop() {
+        sweeper.shutdownNow();
+    }
+
+    private void sweep() {
+        try {
+            RateLimiter[] snapshot;
+            synchronized (this) {
+                snapshot = limiters.values().toArray(new RateLimiter[0]);
+            }
+            for (RateLimiter limiter : snapshot) {
+                limiter.sweep();
+            }
+        } catch (Exception e) {
+            logger.error("Error in rate limit sweeper", e);
+        }
+    }
+}
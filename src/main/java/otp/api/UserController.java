@@ -1,16 +1,23 @@
 package otp.api;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
-import otp.dao.impl.OtpCodeDaoImpl;
-import otp.dao.impl.OtpConfigDaoImpl;
-import otp.dao.impl.UserDaoImpl;
+import otp.model.OtpBatchResult;
+import otp.model.OtpCode;
+import otp.model.OtpGenerationResult;
+import otp.model.OtpValidationResult;
+import otp.model.User;
 import otp.service.OtpService;
+import otp.service.notification.ChannelUnavailableException;
 import otp.service.notification.NotificationChannel;
-import otp.service.notification.NotificationServiceFactory;
+import otp.service.notification.NotificationQueueFullException;
 import otp.util.JsonUtil;
 import otp.util.HttpUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Контроллер пользовательских операций для работы с OTP-кодами (роль USER).
@@ -23,21 +30,41 @@ import java.io.IOException;
  * </p>
  */
 public class UserController {
-    private final OtpService otpService = new OtpService(
-            new OtpCodeDaoImpl(),
-            new OtpConfigDaoImpl(),
-            new UserDaoImpl(),
-            new NotificationServiceFactory()
-    );
+    private static final ObjectReader GENERATE_READER = JsonUtil.reader(GenerateRequest.class);
+    private static final ObjectReader VALIDATE_READER = JsonUtil.reader(ValidateRequest.class);
+
+    private static final ObjectReader GENERATE_BATCH_READER = JsonUtil.reader(GenerateBatchRequest.class);
+    private static final ObjectReader VALIDATE_BATCH_READER = JsonUtil.reader(ValidateBatchRequest.class);
+
+    private final OtpService otpService;
+    private final int maxBatchItems;
+    private final RateLimits rateLimits;
+
+    /**
+     * @param otpService    сервис генерации и проверки OTP-кодов
+     * @param maxBatchItems максимальное число элементов в пакетном запросе
+     * @param rateLimits    ограничители маршрутов: пакет списывает по токену на элемент
+     *                      с корзины одиночного маршрута
+     */
+    public UserController(OtpService otpService, int maxBatchItems, RateLimits rateLimits) {
+        this.otpService = otpService;
+        this.maxBatchItems = maxBatchItems;
+        this.rateLimits = rateLimits;
+    }
 
     /**
      * Обрабатывает HTTP POST запрос генерации OTP-кода.
      * <p>
      * Ожидает JSON: {"userId": 123, "operationId": "op123", "channel": "EMAIL"}.
+     * Повторный запрос для той же операции, пока её код активен, новый код не создаёт
+     * и не отправляет.
      * </p>
      * <ul>
-     *   <li>202 Accepted — запрос принят и код отправлен</li>
+     *   <li>202 Accepted — код сохранён и поставлен в очередь на отправку</li>
+     *   <li>200 OK — у операции уже есть активный код:
+     *       {"status": "ACTIVE", "operationId": "op123", "expiresInSeconds": 240}</li>
      *   <li>400 Bad Request — неверные данные или канал</li>
+     *   <li>503 Service Unavailable — канал недоступен или его очередь переполнена (с заголовком Retry-After)</li>
      *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
      *   <li>405 Method Not Allowed — метод не POST</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
@@ -58,10 +85,23 @@ public class UserController {
         }
 
         try {
-            GenerateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), GenerateRequest.class);
-            otpService.sendOtpToUser(req.userId, req.operationId,
+            GenerateRequest req = GENERATE_READER.readValue(exchange.getRequestBody());
+            OtpGenerationResult result = otpService.sendOtpToUser(req.userId, req.operationId,
                     NotificationChannel.valueOf(req.channel));
-            HttpUtils.sendEmptyResponse(exchange, 202);
+            if (result.isCreated()) {
+                HttpUtils.sendEmptyResponse(exchange, 202);
+            } else {
+                HttpUtils.sendJson(exchange, 200, Map.of(
+                        "status", "ACTIVE",
+                        "operationId", req.operationId,
+                        "expiresInSeconds", result.getExpiresInSeconds()));
+            }
+        } catch (NotificationQueueFullException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            HttpUtils.sendError(exchange, 503, "Notification queue is full, retry later");
+        } catch (ChannelUnavailableException e) {
+            exchange.getResponseHeaders().set("Retry-After", "30");
+            HttpUtils.sendError(exchange, 503, e.getMessage());
         } catch (IllegalArgumentException e) {
             HttpUtils.sendError(exchange, 400, e.getMessage());
         } catch (Exception e) {
@@ -69,14 +109,87 @@ public class UserController {
         }
     }
 
+    /**
+     * Обрабатывает HTTP POST запрос пакетной генерации OTP-кодов.
+     * <p>
+     * Ожидает JSON: {"items": [{"userId": 123, "operationId": "op123", "channel": "EMAIL"}, ...]};
+     * userId элемента по умолчанию — аутентифицированный пользователь.
+     * Возвращает {"results": [...]} с исходом каждого элемента в том же порядке:
+     * status QUEUED, ACTIVE (у операции уже есть активный код, повторно не отправлялся)
+     * либо FAILED с причиной в error.
+     * </p>
+     * <ul>
+     *   <li>200 OK — пакет обработан (исходы элементов в теле)</li>
+     *   <li>400 Bad Request — пустой пакет или элементов больше допустимого</li>
+     *   <li>429 Too Many Requests — элементы пакета превышают лимит одиночного маршрута (с Retry-After)</li>
+     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void generateOtpBatch(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.contains("application/json")) {
+            HttpUtils.sendError(exchange, 415, "Content-Type must be application/json");
+            return;
+        }
+
+        try {
+            GenerateBatchRequest req = GENERATE_BATCH_READER.readValue(exchange.getRequestBody());
+            if (req.items == null || req.items.isEmpty()) {
+                HttpUtils.sendError(exchange, 400, "items are required");
+                return;
+            }
+            if (req.items.size() > maxBatchItems) {
+                HttpUtils.sendError(exchange, 400, "Too many items, at most " + maxBatchItems + " allowed");
+                return;
+            }
+            Long currentUserId = ((User) exchange.getAttribute("user")).getId();
+            if (!chargeItems(exchange, "generate", currentUserId, req.items.size())) {
+                return;
+            }
+            List<OtpService.OtpRequest> requests = new ArrayList<>(req.items.size());
+            for (GenerateRequest item : req.items) {
+                Long userId = item.userId != null ? item.userId : currentUserId;
+                requests.add(new OtpService.OtpRequest(userId, item.operationId, parseChannel(item.channel)));
+            }
+            HttpUtils.sendJson(exchange, 200, Map.of("results", otpService.sendOtpBatch(requests)));
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
+    // null, если канал не указан или не распознан
+    private static NotificationChannel parseChannel(String channel) {
+        if (channel == null) {
+            return null;
+        }
+        try {
+            return NotificationChannel.valueOf(channel);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     /**
      * Обрабатывает HTTP POST запрос валидации OTP-кода.
      * <p>
-     * Ожидает JSON: {"code": "123456"}.
+     * Ожидает JSON: {"userId": 123, "operationId": "op123", "code": "123456"}.
+     * userId по умолчанию — аутентифицированный пользователь; operationId
+     * не указывается, если код генерировался без привязки к операции.
      * </p>
      * <ul>
      *   <li>200 OK — код корректен</li>
-     *   <li>400 Bad Request — неверный или просроченный код</li>
+     *   <li>400 Bad Request — код не найден, просрочен или уже использован (причина в сообщении)</li>
      *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
      *   <li>405 Method Not Allowed — метод не POST</li>
      *   <li>500 Internal Server Error — при других ошибках</li>
@@ -97,12 +210,18 @@ public class UserController {
         }
 
         try {
-            ValidateRequest req = JsonUtil.fromJson(exchange.getRequestBody(), ValidateRequest.class);
-            boolean valid = otpService.validateOtp(req.code);
-            if (valid) {
-                HttpUtils.sendEmptyResponse(exchange, 200);
-            } else {
-                HttpUtils.sendError(exchange, 400, "Invalid or expired code");
+            ValidateRequest req = VALIDATE_READER.readValue(exchange.getRequestBody());
+            if (req.code == null || req.code.isBlank()) {
+                HttpUtils.sendError(exchange, 400, "code is required");
+                return;
+            }
+            Long userId = req.userId != null ? req.userId : ((User) exchange.getAttribute("user")).getId();
+            OtpValidationResult result = otpService.validateOtp(userId, req.operationId, req.code);
+            switch (result) {
+                case VALID -> HttpUtils.sendEmptyResponse(exchange, 200);
+                case EXPIRED -> HttpUtils.sendError(exchange, 400, "Code expired");
+                case USED -> HttpUtils.sendError(exchange, 400, "Code already used");
+                default -> HttpUtils.sendError(exchange, 400, "Invalid code");
             }
         } catch (IllegalArgumentException e) {
             HttpUtils.sendError(exchange, 400, e.getMessage());
@@ -111,6 +230,90 @@ public class UserController {
         }
     }
 
+    /**
+     * Обрабатывает HTTP POST запрос пакетной валидации OTP-кодов.
+     * <p>
+     * Ожидает JSON: {"items": [{"userId": 123, "operationId": "op123", "code": "123456"}, ...]};
+     * userId элемента по умолчанию — аутентифицированный пользователь. Все коды гасятся
+     * одним запросом к БД. Возвращает {"results": [...]} в порядке элементов: status —
+     * VALID, EXPIRED, USED или NOT_FOUND, либо FAILED с причиной в error.
+     * </p>
+     * <ul>
+     *   <li>200 OK — пакет обработан (исходы элементов в теле)</li>
+     *   <li>400 Bad Request — пустой пакет или элементов больше допустимого</li>
+     *   <li>429 Too Many Requests — элементы пакета превышают лимит одиночного маршрута (с Retry-After)</li>
+     *   <li>415 Unsupported Media Type — Content-Type не application/json</li>
+     *   <li>405 Method Not Allowed — метод не POST</li>
+     *   <li>500 Internal Server Error — при других ошибках</li>
+     * </ul>
+     *
+     * @param exchange текущий HTTP-контекст
+     * @throws IOException при ошибках ввода-вывода
+     */
+    public void validateOtpBatch(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            HttpUtils.sendError(exchange, 405, "Method Not Allowed");
+            return;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.contains("application/json")) {
+            HttpUtils.sendError(exchange, 415, "Content-Type must be application/json");
+            return;
+        }
+
+        try {
+            ValidateBatchRequest req = VALIDATE_BATCH_READER.readValue(exchange.getRequestBody());
+            if (req.items == null || req.items.isEmpty()) {
+                HttpUtils.sendError(exchange, 400, "items are required");
+                return;
+            }
+            if (req.items.size() > maxBatchItems) {
+                HttpUtils.sendError(exchange, 400, "Too many items, at most " + maxBatchItems + " allowed");
+                return;
+            }
+            Long currentUserId = ((User) exchange.getAttribute("user")).getId();
+            if (!chargeItems(exchange, "validate", currentUserId, req.items.size())) {
+                return;
+            }
+            List<OtpBatchResult> results = new ArrayList<>(req.items.size());
+            List<OtpCode> attempts = new ArrayList<>(req.items.size());
+            List<Integer> attemptIndexes = new ArrayList<>(req.items.size());
+            for (ValidateRequest item : req.items) {
+                Long userId = item.userId != null ? item.userId : currentUserId;
+                if (item.code == null || item.code.isBlank()) {
+                    results.add(new OtpBatchResult(userId, item.operationId, "FAILED", "code is required"));
+                    continue;
+                }
+                attemptIndexes.add(results.size());
+                results.add(null);
+                attempts.add(new OtpCode(null, userId, item.operationId, item.code, null, null));
+            }
+            if (!attempts.isEmpty()) {
+                List<OtpValidationResult> outcomes = otpService.validateOtpBatch(attempts);
+                for (int k = 0; k < attempts.size(); k++) {
+                    OtpCode a = attempts.get(k);
+                    results.set(attemptIndexes.get(k),
+                            new OtpBatchResult(a.getUserId(), a.getOperationId(), outcomes.get(k).name(), null));
+                }
+            }
+            HttpUtils.sendJson(exchange, 200, Map.of("results", results));
+        } catch (IllegalArgumentException e) {
+            HttpUtils.sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            HttpUtils.sendError(exchange, 500, "Internal server error");
+        }
+    }
+
+    // Пакет расходует бюджет одиночного маршрута: по токену на элемент; при превышении — 429
+    private boolean chargeItems(HttpExchange exchange, String route, Long userId, int items) throws IOException {
+        long waitNanos = rateLimits.tryAcquire(route, RateLimitFilter.userKey(userId), items);
+        if (waitNanos > 0) {
+            RateLimitFilter.sendTooManyRequests(exchange, waitNanos);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * DTO для разбора JSON тела POST /otp/generate.
      */
@@ -120,10 +323,26 @@ public class UserController {
         public String channel;
     }
 
+    /**
+     * DTO для разбора JSON тела POST /otp/generate/batch.
+     */
+    private static class GenerateBatchRequest {
+        public List<GenerateRequest> items;
+    }
+
     /**
      * DTO для разбора JSON тела POST /otp/validate.
      */
     private static class ValidateRequest {
+        public Long userId;
+        public String operationId;
         public String code;
     }
+
+    /**
+     * DTO для разбора JSON тела POST /otp/validate/batch.
+     */
+    private static class ValidateBatchRequest {
+        public List<ValidateRequest> items;
+    }
 }
@@ -0,0 +1,57 @@
+package otp.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Единая точка чтения application.properties.
+ * Файл загружается один раз при первом обращении к классу;
+ * методы get* возвращают значение по ключу или значение по умолчанию.
+ */
+public final class AppConfig {
+    private static final String PROPS_FILE = "application.properties";
+    private static final Properties props = load();
+
+    private AppConfig() { /* запрет создания экземпляров */ }
+
+    private static Properties load() {
+        Properties p = new Properties();
+        try (InputStream is = AppConfig.class.getClassLoader().getResourceAsStream(PROPS_FILE)) {
+            if (is != null) {
+                p.load(is);
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(
+                    "Ошибка загрузки " + PROPS_FILE + ": " + e.getMessage());
+        }
+        return p;
+    }
+
+    /**
+     * @return значение свойства или null, если оно не задано
+     */
+    public static String get(String key) {
+        return props.getProperty(key);
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = props.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
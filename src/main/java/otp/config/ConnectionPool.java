@@ -0,0 +1,371 @@
+package otp.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Простой пул JDBC-соединений.
+ * <p>
+ * Выдаёт прокси над физическим соединением: close() возвращает соединение в пул,
+ * а не закрывает его. Поддерживает:
+ * <ul>
+ *   <li>ограничение общего числа соединений (maxSize) и таймаут ожидания;</li>
+ *   <li>поддержание минимального числа простаивающих соединений (minIdle);</li>
+ *   <li>проверку соединения при выдаче (Connection.isValid);</li>
+ *   <li>максимальное время жизни и простоя физического соединения;</li>
+ *   <li>обнаружение утечек — соединений, не возвращённых дольше порога.</li>
+ * </ul>
+ * </p>
+ */
+public final class ConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMs;
+    private final int validationTimeoutSec;
+    private final long maxLifetimeNanos;
+    private final long idleTimeoutNanos;
+    private final long leakThresholdNanos;
+
+    /** Простаивающие соединения; берём с головы (LIFO), чтобы лишние успевали устареть */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    /** Выданные соединения — для обнаружения утечек */
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    /** Разрешения на выдачу: не более maxSize соединений одновременно на руках */
+    private final Semaphore slots;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ScheduledExecutorService housekeeper;
+
+    // Метрики
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password,
+                          int maxSize, int minIdle, long acquireTimeoutMs,
+                          int validationTimeoutSec, long maxLifetimeMs,
+                          long idleTimeoutMs, long leakThresholdMs) {
+        if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException(
+                    "Invalid pool size: maxSize=" + maxSize + ", minIdle=" + minIdle);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.validationTimeoutSec = validationTimeoutSec;
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMs);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMs);
+        this.slots = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 1, 5, TimeUnit.SECONDS);
+        logger.info("Connection pool created: maxSize={}, minIdle={}, acquireTimeoutMs={}",
+                maxSize, minIdle, acquireTimeoutMs);
+    }
+
+    /**
+     * Выдаёт соединение из пула, при необходимости создавая новое.
+     * @return прокси Connection; close() возвращает его в пул
+     * @throws SQLException если за acquireTimeoutMs соединение получить не удалось
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!slots.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException(
+                        "Connection pool exhausted: no connection available within " + acquireTimeoutMs + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for connection", e);
+        }
+
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) {
+                pc = createConnection();
+            }
+            long now = System.nanoTime();
+            pc.borrowedAt = now;
+            pc.leakReported = false;
+            pc.borrowTrace = leakThresholdNanos > 0 ? new Exception("Connection acquired here") : null;
+            borrowed.add(pc);
+            recordWait(now - start);
+            return pc.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Закрывает пул и все физические соединения.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        logger.info("Connection pool closed ({} connections still borrowed)", borrowed.size());
+    }
+
+    /**
+     * @return снимок счётчиков пула
+     */
+    public Map<String, Object> metrics() {
+        long count = acquired.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("active", borrowed.size());
+        m.put("idle", idle.size());
+        m.put("total", total.get());
+        m.put("maxSize", maxSize);
+        m.put("waiting", slots.getQueueLength());
+        m.put("acquired", count);
+        m.put("timeouts", timeouts.sum());
+        m.put("created", created.sum());
+        m.put("destroyed", destroyed.sum());
+        m.put("validationFailures", validationFailures.sum());
+        m.put("leaksDetected", leaks.sum());
+        m.put("avgWaitMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / count));
+        m.put("maxWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        return m;
+    }
+
+    // Берёт пригодное простаивающее соединение, отбрасывая устаревшие и невалидные
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            if (isExpired(pc, System.nanoTime())) {
+                destroy(pc);
+                continue;
+            }
+            if (!isValid(pc)) {
+                validationFailures.increment();
+                destroy(pc);
+                continue;
+            }
+            return pc;
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pc) {
+        try {
+            return pc.raw.isValid(validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pc, long now) {
+        return maxLifetimeNanos > 0 && now - pc.createdAt > maxLifetimeNanos;
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        total.incrementAndGet();
+        try {
+            Connection raw = DriverManager.getConnection(url, user, password);
+            created.increment();
+            return new PooledConnection(raw);
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        total.decrementAndGet();
+        destroyed.increment();
+        try {
+            pc.raw.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing pooled connection: {}", e.getMessage());
+        }
+    }
+
+    // Возврат соединения: откатываем незавершённую транзакцию и кладём обратно либо закрываем
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        try {
+            boolean reusable = !pc.broken && !closed.get() && !isExpired(pc, System.nanoTime());
+            if (reusable) {
+                try {
+                    if (!pc.raw.getAutoCommit()) {
+                        pc.raw.rollback();
+                        pc.raw.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                pc.lastReturnedAt = System.nanoTime();
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        acquired.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    // Фоновое обслуживание: устаревшие/простаивающие соединения, minIdle, утечки
+    private void housekeep() {
+        try {
+            long now = System.nanoTime();
+            for (PooledConnection pc : idle) {
+                boolean idleTooLong = idleTimeoutNanos > 0
+                        && now - pc.lastReturnedAt > idleTimeoutNanos
+                        && total.get() > minIdle;
+                if ((isExpired(pc, now) || idleTooLong) && idle.remove(pc)) {
+                    destroy(pc);
+                }
+            }
+            while (!closed.get() && idle.size() < minIdle && total.get() < maxSize) {
+                PooledConnection pc = createConnection();
+                pc.lastReturnedAt = System.nanoTime();
+                idle.offerLast(pc);
+            }
+            if (leakThresholdNanos > 0) {
+                for (PooledConnection pc : borrowed) {
+                    if (!pc.leakReported && now - pc.borrowedAt > leakThresholdNanos) {
+                        pc.leakReported = true;
+                        leaks.increment();
+                        logger.warn("Possible connection leak: connection held for {} ms",
+                                TimeUnit.NANOSECONDS.toMillis(now - pc.borrowedAt), pc.borrowTrace);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Connection pool housekeeping failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Физическое соединение и его служебное состояние.
+     */
+    private final class PooledConnection {
+        final Connection raw;
+        final long createdAt = System.nanoTime();
+        volatile long lastReturnedAt = createdAt;
+        volatile long borrowedAt;
+        volatile boolean leakReported;
+        volatile boolean broken;
+        volatile Exception borrowTrace;
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        /**
+         * Каждая выдача получает свой прокси, чтобы повторный close()
+         * или обращение после close() не затронули следующего владельца.
+         */
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this));
+        }
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pc;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Handle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        release(pc);
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || pc.raw.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pc.raw;
+                default:
+                    break;
+            }
+            if (released.get()) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                return method.invoke(pc.raw, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                // Класс 08 — ошибки соединения: такое соединение в пул не возвращаем
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) {
+                        pc.broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+}
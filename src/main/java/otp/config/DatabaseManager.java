@@ -1,49 +1,57 @@
 package otp.config;
 
-import java.io.IOException;
-import java.io.InputStream;
+import otp.util.MetricsRegistry;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Properties;
 
 /**
  * Утилитный класс для работы с подключением к БД.
  * Загружает настройки из application.properties и предоставляет методы
  * для получения Connection и закрытия ресурсов.
+ * <p>
+ * Соединения выдаются из пула ConnectionPool: закрытие полученного
+ * Connection возвращает его в пул, поэтому DAO продолжают использовать
+ * привычный try-with-resources.
+ * </p>
  */
 public class DatabaseManager {
-    private static final String PROPS_FILE = "application.properties";
-    private static String url;
-    private static String user;
-    private static String password;
+    private static final ConnectionPool pool;
 
-    // Статический блок загружает параметры подключения при первом обращении
+    // Статический блок создаёт пул при первом обращении
     static {
-        try (InputStream is = DatabaseManager.class
-                .getClassLoader()
-                .getResourceAsStream(PROPS_FILE)) {
-            if (is == null) {
-                throw new RuntimeException("Не найден файл " + PROPS_FILE + " в classpath");
-            }
-            Properties props = new Properties();
-            props.load(is);
-            url = props.getProperty("db.url");
-            user = props.getProperty("db.user");
-            password = props.getProperty("db.password");
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(
-                    "Ошибка загрузки параметров БД из " + PROPS_FILE + ": " + e.getMessage());
+        String url = AppConfig.get("db.url");
+        if (url == null) {
+            throw new ExceptionInInitializerError("Не задан параметр db.url в application.properties");
         }
+        pool = new ConnectionPool(
+                url,
+                AppConfig.get("db.user"),
+                AppConfig.get("db.password"),
+                AppConfig.getInt("db.pool.maxSize", 20),
+                AppConfig.getInt("db.pool.minIdle", 2),
+                AppConfig.getLong("db.pool.acquireTimeoutMs", 3_000),
+                AppConfig.getInt("db.pool.validationTimeoutSec", 2),
+                AppConfig.getLong("db.pool.maxLifetimeMs", 1_800_000),
+                AppConfig.getLong("db.pool.idleTimeoutMs", 600_000),
+                AppConfig.getLong("db.pool.leakDetectionThresholdMs", 30_000));
+        MetricsRegistry.register("dbPool", pool::metrics);
     }
 
     /**
-     * Возвращает новое JDBC-соединение.
-     * @return Connection
-     * @throws SQLException если не удалось установить соединение
+     * Возвращает соединение из пула.
+     * @return Connection; его close() возвращает соединение в пул
+     * @throws SQLException если не удалось получить соединение за отведённое время
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return pool.getConnection();
+    }
+
+    /**
+     * Закрывает пул соединений. Вызывается при остановке приложения.
+     */
+    public static void shutdown() {
+        pool.close();
     }
 
     /**
@@ -0,0 +1,138 @@
+package otp.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фабрика исполнителя для обработчиков HttpServer.
+ * <p>
+ * Режим задаётся свойством server.executor:
+ * <ul>
+ *   <li>virtual  — виртуальный поток на каждый запрос, не более
+ *                  server.executor.virtual.maxConcurrent одновременно;</li>
+ *   <li>platform — ограниченный пул платформенных потоков
+ *                  (server.executor.platform.threads) с очередью
+ *                  server.executor.platform.queueCapacity.</li>
+ * </ul>
+ * При достижении лимита поток-диспетчер HttpServer блокируется (virtual)
+ * или выполняет запрос сам (platform), т.е. перестаёт принимать новые
+ * соединения, пока не освободится место.
+ * </p>
+ */
+public final class ServerExecutorFactory {
+    private static final Logger logger = LoggerFactory.getLogger(ServerExecutorFactory.class);
+
+    private ServerExecutorFactory() { /* запрет создания экземпляров */ }
+
+    /**
+     * Создаёт исполнитель согласно application.properties.
+     *
+     * @return ExecutorService для HttpServer.setExecutor()
+     * @throws IllegalArgumentException если указан неизвестный режим
+     */
+    public static ExecutorService create() {
+        String mode = AppConfig.get("server.executor", "virtual");
+        switch (mode.toLowerCase()) {
+            case "virtual": {
+                int maxConcurrent = AppConfig.getInt("server.executor.virtual.maxConcurrent", 10_000);
+                logger.info("HTTP executor: virtual threads, maxConcurrent={}", maxConcurrent);
+                return new BoundedExecutor(Executors.newVirtualThreadPerTaskExecutor(), maxConcurrent);
+            }
+            case "platform": {
+                int cores = Runtime.getRuntime().availableProcessors();
+                int threads = AppConfig.getInt("server.executor.platform.threads", cores * 4);
+                int queueCapacity = AppConfig.getInt("server.executor.platform.queueCapacity", 1_000);
+                logger.info("HTTP executor: platform pool, threads={}, queueCapacity={}", threads, queueCapacity);
+                return new ThreadPoolExecutor(
+                        threads, threads,
+                        0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueCapacity),
+                        namedThreadFactory("http-worker-"),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            }
+            default:
+                throw new IllegalArgumentException("Unknown server.executor mode: " + mode);
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        };
+    }
+
+    /**
+     * Обёртка, ограничивающая число одновременно выполняемых задач семафором.
+     * execute() блокирует вызывающий поток, пока не появится свободное место.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        BoundedExecutor(ExecutorService delegate, int maxConcurrent) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for executor slot", e);
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
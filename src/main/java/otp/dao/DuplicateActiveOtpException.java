@@ -0,0 +1,32 @@
+package otp.dao;
+
+/**
+ * Исключение, сигнализирующее, что у пользователя уже есть активный код для этой операции:
+ * вставка нашла ACTIVE-код той же (user_id, operation_id) или нарушила уникальный индекс секции.
+ */
+public class DuplicateActiveOtpException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Long userId;
+    private final String operationId;
+
+    public DuplicateActiveOtpException(Long userId, String operationId, Throwable cause) {
+        super("Active OTP code already exists for user " + userId + ", operation " + operationId, cause);
+        this.userId = userId;
+        this.operationId = operationId;
+    }
+
+    /**
+     * @return владелец кода
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return операция, для которой уже есть активный код
+     */
+    public String getOperationId() {
+        return operationId;
+    }
+}
@@ -1,6 +1,7 @@
 package otp.dao;
 
 import otp.model.OtpCode;
+import otp.model.OtpValidationResult;
 import java.time.Duration;
 import java.util.List;
 
@@ -12,9 +13,27 @@ public interface OtpCodeDao {
     /**
      * Сохраняет новый одноразовый код в БД.
      * @param code объект OtpCode (id и createdAt могут быть null — будут заполнены БД)
+     * @throws DuplicateActiveOtpException если для (userId, operationId) уже есть активный код
      */
     void save(OtpCode code);
 
+    /**
+     * Сохраняет несколько кодов одной пачкой и проставляет им id.
+     * @param codes новые коды (createdAt может быть null — будет заполнено текущим временем)
+     * @throws DuplicateActiveOtpException если хотя бы для одного кода уже есть активный код
+     *         той же операции; несохранённые коды остаются с id == null и могут быть
+     *         повторены по одному через save()
+     */
+    void saveAll(List<OtpCode> codes);
+
+    /**
+     * Ищет активный код пользователя для операции.
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции
+     * @return самый свежий активный OtpCode или null
+     */
+    OtpCode findActiveByOperation(Long userId, String operationId);
+
     /**
      * Ищет запись по самому значению кода.
      * @param code строка кода
@@ -22,6 +41,38 @@ public interface OtpCodeDao {
      */
     OtpCode findByCode(String code);
 
+    /**
+     * Ищет активный код пользователя для конкретной операции.
+     * Использует частичный индекс по (user_id, operation_id, code) среди ACTIVE-кодов,
+     * поэтому не зависит от объёма истории в таблице.
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции (null — код без привязки к операции)
+     * @param code        строка кода
+     * @return самый свежий активный OtpCode или null, если не найден
+     */
+    OtpCode findActive(Long userId, String operationId, String code);
+
+    /**
+     * Атомарно гасит код одним запросом: активный и непросроченный код
+     * переводится в USED, активный просроченный — в EXPIRED.
+     * Из двух параллельных попыток погасить один код успешна только одна.
+     * @param userId      идентификатор пользователя
+     * @param operationId идентификатор операции (null — код без привязки к операции)
+     * @param code        строка кода
+     * @param ttl         время жизни кода
+     * @return точный исход проверки
+     */
+    OtpValidationResult consume(Long userId, String operationId, String code, Duration ttl);
+
+    /**
+     * Пакетный вариант consume(): гасит несколько кодов одним запросом.
+     * Если один и тот же код передан несколько раз, VALID получит только первая попытка.
+     * @param attempts попытки: userId, operationId (может быть null) и code каждого OtpCode
+     * @param ttl      время жизни кода
+     * @return исходы в порядке попыток
+     */
+    List<OtpValidationResult> consumeAll(List<OtpCode> attempts, Duration ttl);
+
     /**
      * Возвращает все коды, связанные с указанным пользователем.
      * @param userId идентификатор пользователя
@@ -36,10 +87,20 @@ public interface OtpCodeDao {
     void markAsUsed(Long id);
 
     /**
-     * Помечает все коды старше указанного TTL как просроченные.
-     * @param ttl время жизни кода (Duration), все коды с createdAt + ttl &lt; now() станут EXPIRED
+     * Помечает просроченными не более limit активных кодов старше TTL.
+     * Строки, заблокированные другими транзакциями (например, гашением кода), пропускаются.
+     * @param ttl   время жизни кода (Duration), коды с createdAt + ttl &lt; now() станут EXPIRED
+     * @param limit максимальное число строк за вызов
+     * @return число помеченных строк
+     */
+    int expireBatch(Duration ttl, int limit);
+
+    /**
+     * Помечает просроченными перечисленные коды, если они всё ещё активны.
+     * @param codes коды с заполненными id, userId и createdAt
+     * @return число помеченных строк
      */
-    void markAsExpiredOlderThan(Duration ttl);
+    int expireCodes(List<OtpCode> codes);
 
     /**
      * Удаляет все коды, принадлежащие указанному пользователю.
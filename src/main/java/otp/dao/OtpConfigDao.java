@@ -14,6 +14,13 @@ public interface OtpConfigDao {
      */
     OtpConfig getConfig();
 
+    /**
+     * Возвращает версию конфигурации. Версия увеличивается при каждом
+     * обновлении и позволяет узлам сервиса заметить изменения, сделанные другими узлами.
+     * @return номер версии или 0, если запись отсутствует
+     */
+    long getVersion();
+
     /**
      * Обновляет существующую конфигурацию OTP (length, ttlSeconds).
      * @param config объект OtpConfig с новыми значениями
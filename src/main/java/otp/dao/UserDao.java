@@ -1,6 +1,7 @@
 package otp.dao;
 
 import otp.model.User;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -28,6 +29,20 @@ public interface UserDao {
      */
     User findById(Long id);
 
+    /**
+     * Ищет пользователей по набору идентификаторов одним запросом.
+     * @param ids идентификаторы
+     * @return найденные пользователи (отсутствующие id пропускаются)
+     */
+    List<User> findByIds(Collection<Long> ids);
+
+    /**
+     * Заменяет хеш пароля пользователя (пересчёт хеша при логине).
+     * @param userId       идентификатор пользователя
+     * @param passwordHash новый хеш
+     */
+    void updatePasswordHash(Long userId, String passwordHash);
+
     /**
      * Возвращает список всех пользователей, у которых роль не ADMIN.
      * @return список пользователей без администраторов
@@ -0,0 +1,140 @@
+package otp.dao.impl;
+
+import otp.dao.OtpConfigDao;
+import otp.model.OtpConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Кэширующий декоратор OtpConfigDao.
+ * <p>
+ * Хранит неизменяемый снимок конфигурации в памяти: getConfig() не обращается к БД.
+ * Обновление через этот экземпляр (PATCH /admin/config) атомарно заменяет снимок,
+ * а изменения, сделанные другими узлами, подхватываются фоновым опросом
+ * колонки version в otp_config.
+ * </p>
+ */
+public class CachingOtpConfigDao implements OtpConfigDao {
+    private static final Logger logger = LoggerFactory.getLogger(CachingOtpConfigDao.class);
+
+    private final OtpConfigDao delegate;
+    private final long pollIntervalMs;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private ScheduledExecutorService poller;
+
+    /**
+     * @param delegate       DAO, читающий конфигурацию из БД
+     * @param pollIntervalMs период проверки версии в миллисекундах (0 — не опрашивать)
+     */
+    public CachingOtpConfigDao(OtpConfigDao delegate, long pollIntervalMs) {
+        this.delegate = delegate;
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    /**
+     * Загружает снимок и запускает фоновый опрос версии.
+     */
+    public synchronized void start() {
+        reload();
+        if (pollIntervalMs > 0 && poller == null) {
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "otp-config-poller");
+                t.setDaemon(true);
+                return t;
+            });
+            poller.scheduleWithFixedDelay(this::pollVersion, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+            logger.info("OTP config cache started, poll interval {} ms", pollIntervalMs);
+        }
+    }
+
+    /** Останавливает фоновый опрос */
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+    }
+
+    @Override
+    public OtpConfig getConfig() {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            current = reload();
+        }
+        return current.copy();
+    }
+
+    @Override
+    public long getVersion() {
+        Snapshot current = snapshot.get();
+        return current != null ? current.version : reload().version;
+    }
+
+    @Override
+    public void updateConfig(OtpConfig config) {
+        delegate.updateConfig(config);
+        reload();
+    }
+
+    @Override
+    public void initDefaultConfigIfEmpty() {
+        delegate.initDefaultConfigIfEmpty();
+        reload();
+    }
+
+    /**
+     * Перечитывает конфигурацию из БД и атомарно заменяет снимок.
+     * Версия читается до конфигурации: если между чтениями кто-то обновит запись,
+     * снимок получит устаревшую версию и будет перечитан при следующем опросе.
+     */
+    private Snapshot reload() {
+        long version = delegate.getVersion();
+        OtpConfig cfg = delegate.getConfig();
+        if (cfg == null) {
+            throw new IllegalStateException("OTP config is not initialized");
+        }
+        Snapshot fresh = new Snapshot(cfg, version);
+        snapshot.set(fresh);
+        logger.info("OTP config snapshot refreshed: {} (version {})", cfg, version);
+        return fresh;
+    }
+
+    private void pollVersion() {
+        try {
+            Snapshot current = snapshot.get();
+            long version = delegate.getVersion();
+            if (current == null || current.version != version) {
+                reload();
+            }
+        } catch (Exception e) {
+            logger.error("Failed to poll OTP config version: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Неизменяемый снимок конфигурации. Наружу отдаются только копии,
+     * чтобы вызывающий код не мог изменить общий экземпляр.
+     */
+    private static final class Snapshot {
+        private final long id;
+        private final int length;
+        private final int ttlSeconds;
+        private final long version;
+
+        Snapshot(OtpConfig cfg, long version) {
+            this.id = cfg.getId();
+            this.length = cfg.getLength();
+            this.ttlSeconds = cfg.getTtlSeconds();
+            this.version = version;
+        }
+
+        OtpConfig copy() {
+            return new OtpConfig(id, length, ttlSeconds);
+        }
+    }
+}
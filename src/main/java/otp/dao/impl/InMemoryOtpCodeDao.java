@@ -0,0 +1,883 @@
+package otp.dao.impl;
+
+import otp.config.DatabaseManager;
+import otp.dao.DuplicateActiveOtpException;
+import otp.dao.OtpCodeDao;
+import otp.model.OtpCode;
+import otp.model.OtpStatus;
+import otp.model.OtpValidationResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реализация OtpCodeDao, хранящая активные коды в памяти.
+ * <p>
+ * Активные коды (и недавно погашенные — чтобы повторная проверка вернула USED)
+ * лежат в ConcurrentHashMap по userId; генерация и проверка не обращаются к БД.
+ * Вставки и смены статуса пишутся в otp_codes отложенно: поток-писатель собирает
+ * их пачками (batchSize или lingerMs) и выполняет одной транзакцией JDBC batch.
+ * Идентификаторы выделяются блоками из последовательности otp_codes.
+ * </p>
+ * <p>
+ * Режим долговечности:
+ * <ul>
+ *   <li>ASYNC — save() возвращается сразу, код попадёт в БД с ближайшей пачкой;</li>
+ *   <li>SYNC  — save() ждёт фиксации своей пачки, смены статуса остаются отложенными.
+ *       Если запись не удалась или не дождалась enqueueTimeoutMs, код убирается из памяти
+ *       и не считается выданным.</li>
+ * </ul>
+ * При старте recover() загружает из БД активные непросроченные коды.
+ * Хранилище рассчитано на один экземпляр сервиса: другие узлы не видят коды в памяти.
+ * </p>
+ * <p>
+ * Карта по userId — ConcurrentHashMap с ключами Long, а не открытая адресация по long:
+ * атомарные compute/computeIfPresent по ключу держат проверку активного кода операции
+ * и удаление пустого контейнера пользователя согласованными без общей блокировки.
+ * Своя long-карта потребовала бы собственного полосатого блокирования. Цена упаковки —
+ * объект Long на пользователя с кодами в памяти и на поиск, а не на каждый код.
+ * </p>
+ */
+public class InMemoryOtpCodeDao implements OtpCodeDao {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryOtpCodeDao.class);
+
+    private static final String RESERVE_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('otp_codes', 'id')) FROM generate_series(1, ?)";
+    private static final String INSERT_SQL =
+            "INSERT INTO otp_codes (id, user_id, operation_id, code, status, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_STATUS_SQL =
+            "UPDATE otp_codes SET status = ? WHERE id = ? AND created_at = ?";
+    private static final String SELECT_ACTIVE_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes"
+                    + " WHERE status = 'ACTIVE' AND created_at >= ?";
+
+    /** Режим долговечности вставок */
+    public enum Durability {
+        ASYNC,
+        SYNC
+    }
+
+    private final OtpCodeDaoImpl delegate;
+    private final Durability durability;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int idBlockSize;
+    private final long enqueueTimeoutMs;
+
+    private final ConcurrentHashMap<Long, UserCodes> codes = new ConcurrentHashMap<>();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final BlockingQueue<PendingWrite> queue;
+    private final ArrayDeque<Long> reservedIds = new ArrayDeque<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder statusUpdates = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder dbFallbacks = new LongAdder();
+
+    /**
+     * @param delegate         JDBC-реализация для запросов по истории кодов
+     * @param durability       режим долговечности вставок
+     * @param batchSize        максимальный размер пачки записи
+     * @param lingerMs         сколько ждать добора пачки после первой записи
+     * @param queueCapacity    ёмкость очереди отложенной записи
+     * @param idBlockSize      сколько идентификаторов резервировать за одно обращение к последовательности
+     * @param enqueueTimeoutMs сколько save() ждёт места в очереди
+     */
+    public InMemoryOtpCodeDao(OtpCodeDaoImpl delegate, Durability durability, int batchSize, long lingerMs,
+                              int queueCapacity, int idBlockSize, long enqueueTimeoutMs) {
+        this.delegate = delegate;
+        this.durability = durability;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.idBlockSize = idBlockSize;
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::writeLoop, "otp-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Загружает из БД активные коды, созданные не раньше now - ttl.
+     */
+    public void recover(Duration ttl) {
+        int loaded = 0;
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_ACTIVE_SQL)) {
+            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minus(ttl)));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Entry e = new Entry(rs.getLong("id"), rs.getLong("user_id"), rs.getString("operation_id"),
+                            rs.getString("code"), rs.getTimestamp("created_at").toLocalDateTime());
+                    put(e);
+                    loaded++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error recovering active OTP codes: {}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        logger.info("Recovered {} active OTP codes into memory", loaded);
+    }
+
+    @Override
+    public void save(OtpCode code) {
+        PendingWrite insert = stage(code);
+        if (durability == Durability.SYNC) {
+            try {
+                insert.future.get(enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                if (!abandon(insert)) {
+                    logger.error("Error persisting OTP code for user [{}]: {}", code.getUserId(), e.getMessage());
+                    throw new RuntimeException("OTP code was not persisted", e);
+                }
+                // Пачка зафиксировалась в момент истечения ожидания — код сохранён
+            }
+        }
+        logger.debug("Saved OTP code id={} for user {} in memory", code.getId(), code.getUserId());
+    }
+
+    @Override
+    public void saveAll(List<OtpCode> newCodes) {
+        List<PendingWrite> inserts = new ArrayList<>(newCodes.size());
+        DuplicateActiveOtpException duplicate = null;
+        for (OtpCode code : newCodes) {
+            try {
+                inserts.add(stage(code));
+            } catch (DuplicateActiveOtpException e) {
+                // Остальные коды пачки сохраняем; конфликтный остаётся без id
+                duplicate = e;
+            }
+        }
+        if (durability == Durability.SYNC) {
+            // Ждём общий срок на всю пачку: записи попадают в одни и те же пачки потока записи
+            try {
+                CompletableFuture.allOf(inserts.stream().map(w -> w.future).toArray(CompletableFuture[]::new))
+                        .get(enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                // Пачка целиком не выдана: записанные коды гасим, остальные отзываем
+                for (PendingWrite insert : inserts) {
+                    if (abandon(insert)) {
+                        expireCodes(List.of(insert.entry.toModel()));
+                    }
+                }
+                logger.error("Error persisting batch of {} OTP codes: {}", newCodes.size(), e.getMessage());
+                throw new RuntimeException("OTP codes were not persisted", e);
+            }
+        }
+        if (duplicate != null) {
+            throw duplicate;
+        }
+        logger.debug("Saved {} OTP codes in memory", newCodes.size());
+    }
+
+    // Назначает id, публикует код в памяти и ставит вставку в очередь записи.
+    // Публикация идёт первой: проверка на активный код той же операции и добавление
+    // выполняются атомарно, как проверка уникального индекса в БД
+    private PendingWrite stage(OtpCode code) {
+        // Точность PostgreSQL — микросекунды; иначе UPDATE по (id, created_at) не найдёт строку
+        LocalDateTime createdAt = code.getCreatedAt() != null ? code.getCreatedAt() : LocalDateTime.now();
+        code.setCreatedAt(createdAt.truncatedTo(ChronoUnit.MICROS));
+        code.setId(nextId());
+
+        Entry entry = new Entry(code.getId(), code.getUserId(), code.getOperationId(),
+                code.getCode(), code.getCreatedAt());
+        if (!putIfNoActive(entry)) {
+            code.setId(null);
+            throw new DuplicateActiveOtpException(code.getUserId(), code.getOperationId(), null);
+        }
+        PendingWrite insert = PendingWrite.insert(entry);
+        try {
+            enqueue(insert, true);
+        } catch (RuntimeException e) {
+            // Код не выдан: убираем его из памяти, чтобы он не блокировал повторную генерацию
+            unpublish(entry);
+            throw e;
+        }
+        return insert;
+    }
+
+    @Override
+    public OtpCode findByCode(String code) {
+        return delegate.findByCode(code);
+    }
+
+    @Override
+    public OtpCode findActive(Long userId, String operationId, String code) {
+        UserCodes userCodes = codes.get(userId);
+        if (userCodes == null) {
+            return null;
+        }
+        synchronized (userCodes) {
+            Entry e = userCodes.find(operationId, code);
+            return e != null && e.status == OtpStatus.ACTIVE ? e.toModel() : null;
+        }
+    }
+
+    /**
+     * Активные коды этого экземпляра все лежат в памяти; к БД обращаемся,
+     * только если в памяти кода нет (например, он вставлен другим экземпляром).
+     */
+    @Override
+    public OtpCode findActiveByOperation(Long userId, String operationId) {
+        UserCodes userCodes = codes.get(userId);
+        if (userCodes != null) {
+            synchronized (userCodes) {
+                Entry e = userCodes.findActive(operationId);
+                if (e != null) {
+                    return e.toModel();
+                }
+            }
+        }
+        return delegate.findActiveByOperation(userId, operationId);
+    }
+
+    /**
+     * Гасит код в памяти. Если кода в памяти нет, точную причину (USED или EXPIRED
+     * для старых кодов, NOT_FOUND) сообщает запрос к БД.
+     */
+    @Override
+    public OtpValidationResult consume(Long userId, String operationId, String code, Duration ttl) {
+        OtpValidationResult result = consumeInMemory(userId, operationId, code, ttl);
+        if (result != null) {
+            return result;
+        }
+        dbFallbacks.increment();
+        return delegate.consume(userId, operationId, code, ttl);
+    }
+
+    @Override
+    public List<OtpValidationResult> consumeAll(List<OtpCode> attempts, Duration ttl) {
+        List<OtpValidationResult> results = new ArrayList<>(attempts.size());
+        List<OtpCode> misses = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (OtpCode a : attempts) {
+            OtpValidationResult result = consumeInMemory(a.getUserId(), a.getOperationId(), a.getCode(), ttl);
+            if (result == null) {
+                missIndexes.add(results.size());
+                misses.add(a);
+            }
+            results.add(result);
+        }
+        // Промахи (коды до перезапуска или другого экземпляра) — одним запросом к БД
+        if (!misses.isEmpty()) {
+            dbFallbacks.add(misses.size());
+            List<OtpValidationResult> fromDb = delegate.consumeAll(misses, ttl);
+            for (int k = 0; k < missIndexes.size(); k++) {
+                results.set(missIndexes.get(k), fromDb.get(k));
+            }
+        }
+        return results;
+    }
+
+    // Гашение по памяти; null — кода в памяти нет
+    private OtpValidationResult consumeInMemory(Long userId, String operationId, String code, Duration ttl) {
+        UserCodes userCodes = codes.get(userId);
+        if (userCodes != null) {
+            PendingWrite change = null;
+            OtpValidationResult result = null;
+            synchronized (userCodes) {
+                Entry e = userCodes.find(operationId, code);
+                if (e != null) {
+                    if (e.status != OtpStatus.ACTIVE) {
+                        result = e.status == OtpStatus.USED ? OtpValidationResult.USED : OtpValidationResult.EXPIRED;
+                    } else if (e.createdAt.isBefore(LocalDateTime.now().minus(ttl))) {
+                        e.status = OtpStatus.EXPIRED;
+                        change = PendingWrite.status(e, OtpStatus.EXPIRED);
+                        result = OtpValidationResult.EXPIRED;
+                    } else {
+                        e.status = OtpStatus.USED;
+                        change = PendingWrite.status(e, OtpStatus.USED);
+                        result = OtpValidationResult.VALID;
+                    }
+                }
+            }
+            if (change != null) {
+                activeCount.decrementAndGet();
+                enqueue(change, false);
+            }
+            return result;
+        }
+        return null;
+    }
+
+    @Override
+    public List<OtpCode> findAllByUser(Long userId) {
+        return delegate.findAllByUser(userId);
+    }
+
+    @Override
+    public void markAsUsed(Long id) {
+        for (UserCodes userCodes : codes.values()) {
+            synchronized (userCodes) {
+                for (Entry e : userCodes.entries) {
+                    if (e.id == id) {
+                        if (e.status == OtpStatus.ACTIVE) {
+                            e.status = OtpStatus.USED;
+                            activeCount.decrementAndGet();
+                            enqueue(PendingWrite.status(e, OtpStatus.USED), false);
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+        delegate.markAsUsed(id);
+    }
+
+    /**
+     * Помечает просроченными до limit активных кодов в памяти и удаляет из памяти
+     * погашенные коды старше TTL. Если в памяти просроченных меньше limit, добирает
+     * остаток запросом к БД (коды, не попавшие в память, например до перезапуска).
+     */
+    @Override
+    public int expireBatch(Duration ttl, int limit) {
+        LocalDateTime threshold = LocalDateTime.now().minus(ttl);
+        int expired = 0;
+        for (Iterator<Map.Entry<Long, UserCodes>> it = codes.entrySet().iterator();
+             it.hasNext() && expired < limit; ) {
+            Map.Entry<Long, UserCodes> mapEntry = it.next();
+            UserCodes userCodes = mapEntry.getValue();
+            boolean empty;
+            synchronized (userCodes) {
+                Iterator<Entry> entries = userCodes.entries.iterator();
+                while (entries.hasNext() && expired < limit) {
+                    Entry e = entries.next();
+                    if (!e.createdAt.isBefore(threshold)) {
+                        continue;
+                    }
+                    entries.remove();
+                    if (e.status == OtpStatus.ACTIVE) {
+                        e.status = OtpStatus.EXPIRED;
+                        activeCount.decrementAndGet();
+                        enqueue(PendingWrite.status(e, OtpStatus.EXPIRED), false);
+                        expired++;
+                    }
+                }
+                empty = userCodes.entries.isEmpty();
+            }
+            if (empty) {
+                removeIfEmpty(mapEntry.getKey());
+            }
+        }
+        if (expired < limit) {
+            expired += delegate.expireBatch(ttl, limit - expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Помечает просроченными перечисленные коды в памяти и убирает их из памяти
+     * (включая уже погашенные: их срок истёк, повторную проверку обслужит БД).
+     */
+    @Override
+    public int expireCodes(List<OtpCode> expiredCodes) {
+        int expired = 0;
+        for (OtpCode c : expiredCodes) {
+            UserCodes userCodes = codes.get(c.getUserId());
+            if (userCodes == null) {
+                continue;
+            }
+            boolean empty;
+            synchronized (userCodes) {
+                Iterator<Entry> entries = userCodes.entries.iterator();
+                while (entries.hasNext()) {
+                    Entry e = entries.next();
+                    if (e.id != c.getId()) {
+                        continue;
+                    }
+                    entries.remove();
+                    if (e.status == OtpStatus.ACTIVE) {
+                        e.status = OtpStatus.EXPIRED;
+                        activeCount.decrementAndGet();
+                        enqueue(PendingWrite.status(e, OtpStatus.EXPIRED), false);
+                        expired++;
+                    }
+                    break;
+                }
+                empty = userCodes.entries.isEmpty();
+            }
+            if (empty) {
+                removeIfEmpty(c.getUserId());
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Удаляет коды пользователя из памяти, из очереди записи и из БД.
+     * Снятые с очереди записи завершаются ошибкой, чтобы SYNC-вызов save() не ждал их
+     * до enqueueTimeoutMs. Пачка, уже забранная потоком записи, не отзывается: её вставка
+     * для удалённого пользователя нарушит внешний ключ, и flush() допишет остальные строки
+     * пачки по одной, а эту запись завершит ошибкой.
+     */
+    @Override
+    public void deleteAllByUserId(Long userId) {
+        UserCodes removed = codes.remove(userId);
+        if (removed != null) {
+            synchronized (removed) {
+                for (Entry e : removed.entries) {
+                    if (e.status == OtpStatus.ACTIVE) {
+                        activeCount.decrementAndGet();
+                    }
+                }
+                removed.entries.clear();
+            }
+        }
+        // Несохранённые записи удалённого пользователя нарушили бы внешний ключ
+        IllegalStateException deleted = new IllegalStateException("User " + userId + " was deleted");
+        queue.removeIf(w -> {
+            if (w.entry.userId != userId) {
+                return false;
+            }
+            w.future.completeExceptionally(deleted);
+            return true;
+        });
+        delegate.deleteAllByUserId(userId);
+    }
+
+    /**
+     * Дописывает очередь в БД и останавливает поток-писатель.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("{} OTP writes were not persisted on shutdown", queue.size());
+        }
+    }
+
+    /**
+     * @return снимок счётчиков хранилища и отложенной записи
+     */
+    public Map<String, Object> metrics() {
+        long b = batches.sum();
+        long writes = inserted.sum() + statusUpdates.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("durability", durability.name());
+        m.put("activeCodes", activeCount.get());
+        m.put("users", codes.size());
+        m.put("queueDepth", queue.size());
+        m.put("inserted", inserted.sum());
+        m.put("statusUpdates", statusUpdates.sum());
+        m.put("batches", b);
+        m.put("avgBatchSize", b == 0 ? 0 : writes / b);
+        m.put("writeFailures", writeFailures.sum());
+        m.put("dbFallbacks", dbFallbacks.sum());
+        return m;
+    }
+
+    // Добавление под блокировкой ячейки карты: не пересекается с удалением пустого контейнера
+    private void put(Entry e) {
+        codes.compute(e.userId, (k, v) -> {
+            UserCodes target = v != null ? v : new UserCodes();
+            synchronized (target) {
+                target.entries.add(e);
+            }
+            return target;
+        });
+        activeCount.incrementAndGet();
+    }
+
+    // Как put, но не добавляет код, если у пользователя уже есть активный код той же операции
+    private boolean putIfNoActive(Entry e) {
+        if (e.operationId == null) {
+            put(e);
+            return true;
+        }
+        boolean[] added = new boolean[1];
+        codes.compute(e.userId, (k, v) -> {
+            UserCodes target = v != null ? v : new UserCodes();
+            synchronized (target) {
+                if (target.findActive(e.operationId) == null) {
+                    target.entries.add(e);
+                    added[0] = true;
+                }
+            }
+            return target;
+        });
+        if (added[0]) {
+            activeCount.incrementAndGet();
+        }
+        return added[0];
+    }
+
+    // Убирает из памяти код, вставка которого не была принята в очередь
+    private void unpublish(Entry e) {
+        UserCodes userCodes = codes.get(e.userId);
+        if (userCodes == null) {
+            return;
+        }
+        boolean empty;
+        synchronized (userCodes) {
+            if (userCodes.entries.remove(e) && e.status == OtpStatus.ACTIVE) {
+                activeCount.decrementAndGet();
+            }
+            empty = userCodes.entries.isEmpty();
+        }
+        if (empty) {
+            removeIfEmpty(e.userId);
+        }
+    }
+
+    /**
+     * Отзывает вставку, которую SYNC-вызов не дождался или которая не записалась.
+     * Отменённое future не даст позднему завершению пачки вернуть код: поток записи
+     * пропустит такую вставку, а если она уже ушла в БД — пометит строку EXPIRED.
+     *
+     * @return true, если вставка всё-таки успела зафиксироваться и код остался в памяти
+     */
+    private boolean abandon(PendingWrite insert) {
+        insert.future.cancel(false);
+        if (!insert.future.isCompletedExceptionally()) {
+            return true;
+        }
+        queue.remove(insert);
+        unpublish(insert.entry);
+        return false;
+    }
+
+    // Удаляет контейнер пользователя, только если в него никто не успел добавить код
+    private void removeIfEmpty(Long userId) {
+        codes.computeIfPresent(userId, (k, v) -> {
+            synchronized (v) {
+                return v.entries.isEmpty() ? null : v;
+            }
+        });
+    }
+
+    private long nextId() {
+        synchronized (reservedIds) {
+            if (reservedIds.isEmpty()) {
+                try (Connection conn = DatabaseManager.getConnection();
+                     PreparedStatement ps = conn.prepareStatement(RESERVE_IDS_SQL)) {
+                    ps.setInt(1, idBlockSize);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            reservedIds.addLast(rs.getLong(1));
+                        }
+                    }
+                } catch (SQLException e) {
+                    logger.error("Error reserving OTP ids: {}", e.getMessage(), e);
+                    throw new RuntimeException(e);
+                }
+            }
+            return reservedIds.pollFirst();
+        }
+    }
+
+    /**
+     * Ставит запись в очередь. Вставку можно отклонить (код ещё не выдан),
+     * смену статуса — нет: иначе погашенный код после вытеснения из памяти
+     * снова оказался бы активным в БД, поэтому для неё ждём места без ограничения.
+     */
+    private void enqueue(PendingWrite write, boolean rejectable) {
+        try {
+            if (rejectable) {
+                if (!queue.offer(write, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("OTP write-behind queue is full");
+                }
+            } else {
+                queue.put(write);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Пишет пачку одной транзакцией. При недоступности БД повторяет с паузой,
+     * при ошибке данных переходит к построчной записи, чтобы одна плохая строка
+     * не потеряла остальные.
+     */
+    private void flush(List<PendingWrite> batch) throws InterruptedException {
+        // Вставки, отозванные вызывающим (abandon), не пишем
+        batch.removeIf(w -> w.newStatus == null && w.future.isCancelled());
+        if (batch.isEmpty()) {
+            return;
+        }
+        long backoffMs = 100;
+        while (true) {
+            try {
+                writeBatch(batch);
+                batches.increment();
+                complete(batch);
+                return;
+            } catch (SQLException e) {
+                if (isTransient(e) && running) {
+                    logger.warn("OTP write-behind batch of {} failed, retrying in {} ms: {}",
+                            batch.size(), backoffMs, e.getMessage());
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, 5_000);
+                    continue;
+                }
+                logger.warn("OTP write-behind batch of {} failed, writing rows one by one: {}",
+                        batch.size(), e.getMessage());
+                for (PendingWrite w : batch) {
+                    try {
+                        writeBatch(List.of(w));
+                        complete(List.of(w));
+                    } catch (SQLException rowError) {
+                        writeFailures.increment();
+                        logger.error("Failed to persist OTP write id={}: {}", w.entry.id, rowError.getMessage());
+                        w.future.completeExceptionally(rowError);
+                        if (w.newStatus == null) {
+                            // Код так и не попал в БД — в памяти он не должен считаться выданным
+                            unpublish(w.entry);
+                        }
+                    }
+                }
+                batches.increment();
+                return;
+            }
+        }
+    }
+
+    // Завершает записи пачки. Вставку, отозванную во время записи, гасим в БД сразу:
+    // через очередь нельзя — поток записи сам её разбирает и может встать на заполненной
+    private void complete(List<PendingWrite> written) {
+        List<PendingWrite> revoked = new ArrayList<>();
+        for (PendingWrite w : written) {
+            if (!w.future.complete(null) && w.newStatus == null && w.future.isCancelled()) {
+                revoked.add(PendingWrite.status(w.entry, OtpStatus.EXPIRED));
+            }
+        }
+        if (revoked.isEmpty()) {
+            return;
+        }
+        try {
+            writeBatch(revoked);
+        } catch (SQLException e) {
+            writeFailures.increment();
+            logger.error("Failed to expire {} abandoned OTP codes: {}", revoked.size(), e.getMessage());
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL);
+                 PreparedStatement update = conn.prepareStatement(UPDATE_STATUS_SQL)) {
+                int inserts = 0;
+                int updates = 0;
+                Set<Entry> insertedHere = new HashSet<>();
+                for (PendingWrite w : batch) {
+                    if (w.newStatus == null) {
+                        Entry e = w.entry;
+                        insert.setLong(1, e.id);
+                        insert.setLong(2, e.userId);
+                        if (e.operationId != null) {
+                            insert.setString(3, e.operationId);
+                        } else {
+                            insert.setNull(3, Types.VARCHAR);
+                        }
+                        insert.setString(4, e.code);
+                        insert.setString(5, OtpStatus.ACTIVE.name());
+                        insert.setTimestamp(6, Timestamp.valueOf(e.createdAt));
+                        insert.addBatch();
+                        insertedHere.add(e);
+                        inserts++;
+                    }
+                }
+                // Смены статуса кодов из прошлых пачек идут до вставок: новый код операции
+                // не должен встретить в уникальном индексе ещё ACTIVE-строку погашенного кода.
+                // Смены статуса кодов из этой же пачки — после вставок, иначе строки ещё нет
+                updates += addStatusUpdates(update, batch, insertedHere, false);
+                if (updates > 0) {
+                    update.executeBatch();
+                }
+                if (inserts > 0) {
+                    insert.executeBatch();
+                }
+                int late = addStatusUpdates(update, batch, insertedHere, true);
+                if (late > 0) {
+                    update.executeBatch();
+                    updates += late;
+                }
+                conn.commit();
+                inserted.add(inserts);
+                statusUpdates.add(updates);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Добавляет в batch смены статуса кодов, вставленных (или не вставленных) этой же пачкой
+    private static int addStatusUpdates(PreparedStatement update, List<PendingWrite> batch,
+                                        Set<Entry> insertedHere, boolean sameBatch) throws SQLException {
+        int added = 0;
+        for (PendingWrite w : batch) {
+            if (w.newStatus != null && insertedHere.contains(w.entry) == sameBatch) {
+                update.setString(1, w.newStatus.name());
+                update.setLong(2, w.entry.id);
+                update.setTimestamp(3, Timestamp.valueOf(w.entry.createdAt));
+                update.addBatch();
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || (state != null && state.startsWith("08"));
+    }
+
+    /**
+     * Коды одного пользователя. Доступ — под монитором экземпляра.
+     */
+    private static final class UserCodes {
+        final List<Entry> entries = new ArrayList<>(2);
+
+        // Самый свежий код с таким значением и операцией: активный важнее погашенного
+        Entry find(String operationId, String code) {
+            Entry found = null;
+            for (Entry e : entries) {
+                if (e.code.equals(code) && Objects.equals(e.operationId, operationId)) {
+                    if (found == null
+                            || (e.status == OtpStatus.ACTIVE && found.status != OtpStatus.ACTIVE)
+                            || (e.status == found.status && e.createdAt.isAfter(found.createdAt))) {
+                        found = e;
+                    }
+                }
+            }
+            return found;
+        }
+
+        // Активный код операции; уникальный индекс в БД допускает не больше одного
+        Entry findActive(String operationId) {
+            for (Entry e : entries) {
+                if (e.status == OtpStatus.ACTIVE && operationId.equals(e.operationId)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Код в памяти. status меняется только под монитором UserCodes.
+     */
+    private static final class Entry {
+        final long id;
+        final long userId;
+        final String operationId;
+        final String code;
+        final LocalDateTime createdAt;
+        OtpStatus status = OtpStatus.ACTIVE;
+
+        Entry(long id, long userId, String operationId, String code, LocalDateTime createdAt) {
+            this.id = id;
+            this.userId = userId;
+            this.operationId = operationId;
+            this.code = code;
+            this.createdAt = createdAt;
+        }
+
+        OtpCode toModel() {
+            return new OtpCode(id, userId, operationId, code, status, createdAt);
+        }
+    }
+
+    /**
+     * Отложенная запись: вставка (newStatus == null) или смена статуса.
+     */
+    private static final class PendingWrite {
+        final Entry entry;
+        final OtpStatus newStatus;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(Entry entry, OtpStatus newStatus) {
+            this.entry = entry;
+            this.newStatus = newStatus;
+        }
+
+        static PendingWrite insert(Entry entry) {
+            return new PendingWrite(entry, null);
+        }
+
+        static PendingWrite status(Entry entry, OtpStatus newStatus) {
+            return new PendingWrite(entry, newStatus);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package otp.dao.impl;
 
 import otp.config.DatabaseManager;
+import otp.dao.DuplicateActiveOtpException;
 import otp.dao.OtpCodeDao;
 import otp.model.OtpCode;
 import otp.model.OtpStatus;
+import otp.model.OtpValidationResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,7 +13,9 @@ import java.sql.*;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 /**
  * JDBC-реализация OtpCodeDao.
@@ -20,57 +24,295 @@ import java.util.List;
 public class OtpCodeDaoImpl implements OtpCodeDao {
     private static final Logger logger = LoggerFactory.getLogger(OtpCodeDaoImpl.class);
 
+    /*
+     * Вставка, которая не создаёт второй ACTIVE-код операции. Проверка NOT EXISTS идёт по
+     * родительской таблице, то есть по всем секциям в пределах lookback: уникальный индекс
+     * секции не видит код, созданный до её границы. Гонку двух вставок одной операции
+     * исключает LOCK_OPERATIONS_SQL, выполненный раньше в той же транзакции. Просроченный,
+     * но ещё не помеченный уборкой код тоже блокирует вставку — OtpService погасит его
+     * и повторит. Без operationId условие operation_id = NULL ложно, и код вставляется всегда.
+     */
     private static final String INSERT_SQL =
-            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at) VALUES (?, ?, ?, ?, ?)";
+            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at)"
+                    + " SELECT ?::bigint, ?::varchar, ?::varchar, ?::varchar, ?::timestamp"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM otp_codes"
+                    + "  WHERE user_id = ? AND operation_id = ? AND status = 'ACTIVE' AND created_at >= ?)";
+    /*
+     * Транзакционные advisory-блокировки по (user_id, operation_id) всех кодов пачки.
+     * Отдельным запросом до вставки: снимок запроса, ждавшего блокировку, не увидел бы
+     * строку, зафиксированную её прежним владельцем. Порядок по ключу исключает
+     * взаимоблокировку встречных пачек.
+     */
+    private static final String LOCK_OPERATIONS_SQL =
+            "SELECT pg_advisory_xact_lock(k) FROM ("
+                    + " SELECT DISTINCT hashtext(t.user_id::text || ':' || t.operation_id) AS k"
+                    + "  FROM unnest(?::bigint[], ?::varchar[]) AS t(user_id, operation_id)"
+                    + "  WHERE t.operation_id IS NOT NULL ORDER BY k) locks";
     private static final String SELECT_BY_CODE_SQL =
-            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE code = ?";
+            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes"
+                    + " WHERE code = ? AND created_at >= ?";
+    // Два варианта вместо IS NOT DISTINCT FROM: так условие по operation_id использует индекс
+    private static final String SELECT_ACTIVE_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes "
+                    + "WHERE user_id = ? AND operation_id = ? AND code = ? AND status = 'ACTIVE' AND created_at >= ? "
+                    + "ORDER BY created_at DESC LIMIT 1";
+    private static final String SELECT_ACTIVE_BY_OPERATION_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes "
+                    + "WHERE user_id = ? AND operation_id = ? AND status = 'ACTIVE' AND created_at >= ? "
+                    + "ORDER BY created_at DESC LIMIT 1";
+    private static final String SELECT_ACTIVE_NO_OPERATION_SQL =
+            "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes "
+                    + "WHERE user_id = ? AND operation_id IS NULL AND code = ? AND status = 'ACTIVE' AND created_at >= ? "
+                    + "ORDER BY created_at DESC LIMIT 1";
+    /*
+     * Гашение кода за один запрос. candidate — активный код (по частичному индексу),
+     * а если его нет — последний неактивный, чтобы сообщить точную причину отказа.
+     * consumed/expired меняют статус только если строка всё ещё ACTIVE: параллельный
+     * запрос, дождавшийся блокировки строки, перепроверит условие и ничего не обновит.
+     */
+    private static final String CONSUME_SQL_TEMPLATE =
+            "WITH candidate AS ("
+                    + " (SELECT id, status, created_at FROM otp_codes"
+                    + "   WHERE user_id = ? AND %1$s AND code = ? AND status = 'ACTIVE' AND created_at >= ?"
+                    + "   ORDER BY created_at DESC LIMIT 1)"
+                    + " UNION ALL"
+                    + " (SELECT id, status, created_at FROM otp_codes"
+                    + "   WHERE user_id = ? AND %1$s AND code = ? AND status <> 'ACTIVE' AND created_at >= ?"
+                    + "   ORDER BY created_at DESC LIMIT 1)"
+                    + " LIMIT 1"
+                    + "), consumed AS ("
+                    + " UPDATE otp_codes o SET status = 'USED' FROM candidate c"
+                    + "  WHERE o.id = c.id AND o.created_at = c.created_at AND o.created_at >= ?"
+                    + "   AND o.status = 'ACTIVE' AND o.created_at >= ?"
+                    + "  RETURNING o.id"
+                    + "), expired AS ("
+                    + " UPDATE otp_codes o SET status = 'EXPIRED' FROM candidate c"
+                    + "  WHERE o.id = c.id AND o.created_at = c.created_at AND o.created_at >= ?"
+                    + "   AND o.status = 'ACTIVE' AND o.created_at < ?"
+                    + "  RETURNING o.id"
+                    + ")"
+                    + " SELECT c.status,"
+                    + "  EXISTS (SELECT 1 FROM consumed) AS consumed,"
+                    + "  EXISTS (SELECT 1 FROM expired) AS expired"
+                    + " FROM candidate c";
+    private static final String CONSUME_SQL =
+            String.format(CONSUME_SQL_TEMPLATE, "operation_id = ?");
+    private static final String CONSUME_NO_OPERATION_SQL =
+            String.format(CONSUME_SQL_TEMPLATE, "operation_id IS NULL");
+    /**
+     * Пакетное гашение: попытки передаются массивами и разворачиваются unnest(), для каждой
+     * кандидат ищется так же, как в CONSUME_SQL. Строки кандидатов блокируются в порядке id,
+     * чтобы встречные пакеты не взаимоблокировались. Повтор одного кода в пакете получает
+     * consumed только для первой попытки (rn = 1).
+     */
+    private static final String CONSUME_ALL_SQL =
+            "WITH req AS ("
+                    + " SELECT * FROM unnest(?::int[], ?::bigint[], ?::varchar[], ?::varchar[])"
+                    + "  AS r(idx, user_id, operation_id, code)"
+                    + "), candidate AS ("
+                    + " SELECT r.idx, c.id, c.status, c.created_at FROM req r CROSS JOIN LATERAL ("
+                    + "  (SELECT id, status, created_at FROM otp_codes o"
+                    + "    WHERE o.user_id = r.user_id AND o.code = r.code AND o.status = 'ACTIVE' AND o.created_at >= ?"
+                    + "     AND (o.operation_id = r.operation_id OR (r.operation_id IS NULL AND o.operation_id IS NULL))"
+                    + "    ORDER BY created_at DESC LIMIT 1)"
+                    + "  UNION ALL"
+                    + "  (SELECT id, status, created_at FROM otp_codes o"
+                    + "    WHERE o.user_id = r.user_id AND o.code = r.code AND o.status <> 'ACTIVE' AND o.created_at >= ?"
+                    + "     AND (o.operation_id = r.operation_id OR (r.operation_id IS NULL AND o.operation_id IS NULL))"
+                    + "    ORDER BY created_at DESC LIMIT 1)"
+                    + "  LIMIT 1) c"
+                    + "), locked AS ("
+                    + " SELECT o.id, o.created_at FROM otp_codes o"
+                    + "  WHERE o.created_at >= ? AND o.status = 'ACTIVE'"
+                    + "   AND (o.id, o.created_at) IN (SELECT id, created_at FROM candidate)"
+                    + "  ORDER BY o.id FOR UPDATE"
+                    + "), consumed AS ("
+                    + " UPDATE otp_codes o SET status = 'USED' FROM locked l"
+                    + "  WHERE o.id = l.id AND o.created_at = l.created_at AND o.created_at >= ?"
+                    + "   AND o.status = 'ACTIVE' AND o.created_at >= ?"
+                    + "  RETURNING o.id"
+                    + "), expired AS ("
+                    + " UPDATE otp_codes o SET status = 'EXPIRED' FROM locked l"
+                    + "  WHERE o.id = l.id AND o.created_at = l.created_at AND o.created_at >= ?"
+                    + "   AND o.status = 'ACTIVE' AND o.created_at < ?"
+                    + "  RETURNING o.id"
+                    + ")"
+                    + " SELECT c.idx, c.status,"
+                    + "  (c.id IN (SELECT id FROM consumed)"
+                    + "   AND row_number() OVER (PARTITION BY c.id ORDER BY c.idx) = 1) AS consumed,"
+                    + "  c.id IN (SELECT id FROM expired) AS expired"
+                    + " FROM candidate c";
     private static final String SELECT_BY_USER_SQL =
             "SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes WHERE user_id = ?";
     private static final String UPDATE_MARK_USED_SQL =
             "UPDATE otp_codes SET status = 'USED' WHERE id = ?";
-    private static final String UPDATE_MARK_EXPIRED_SQL =
-            "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND created_at < ?";
+    // Ограниченная порция самых старых активных кодов; занятые строки не ждём
+    private static final String UPDATE_EXPIRE_BATCH_SQL =
+            "UPDATE otp_codes SET status = 'EXPIRED' WHERE created_at >= ? AND (id, created_at) IN ("
+                    + " SELECT id, created_at FROM otp_codes WHERE status = 'ACTIVE' AND created_at >= ? AND created_at < ?"
+                    + " ORDER BY created_at LIMIT ? FOR UPDATE SKIP LOCKED)";
+    // Перечисленные коды одним запросом; нижняя граница created_at отсекает старые секции
+    private static final String UPDATE_EXPIRE_CODES_SQL =
+            "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND created_at >= ?"
+                    + " AND (id, created_at) IN (SELECT * FROM unnest(?::bigint[], ?::timestamp[]))";
     private static final String DELETE_BY_USER_SQL =
             "DELETE FROM otp_codes WHERE user_id = ?";
 
+    /** Насколько далеко в прошлое заглядывают запросы по коду; ограничивает перебор секций */
+    private final Duration lookback;
+    /** Микропакетная вставка; null — каждый save() пишет свою строку сам */
+    private volatile OtpCodeInsertBatcher insertBatcher;
+
+    public OtpCodeDaoImpl() {
+        this(Duration.ofHours(24));
+    }
+
+    /**
+     * @param lookback глубина поиска кодов по created_at. Коды старше заведомо недействительны,
+     *                 а условие created_at &gt;= now - lookback позволяет PostgreSQL
+     *                 отсечь старые секции otp_codes.
+     */
+    public OtpCodeDaoImpl(Duration lookback) {
+        this.lookback = lookback;
+    }
+
     @Override
     public void save(OtpCode code) {
         // Устанавливаем время создания, если оно не задано
         if (code.getCreatedAt() == null) {
             code.setCreatedAt(LocalDateTime.now());
         }
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
-            ps.setLong(1, code.getUserId());
-            if (code.getOperationId() != null) {
-                ps.setString(2, code.getOperationId());
-            } else {
-                ps.setNull(2, Types.VARCHAR);
-            }
-            ps.setString(3, code.getCode());
-            ps.setString(4, code.getStatus().name());
-            ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
-            int affected = ps.executeUpdate();
-            if (affected == 0) {
-                throw new SQLException("Saving OTP code failed, no rows affected.");
-            }
-            try (ResultSet keys = ps.getGeneratedKeys()) {
-                if (keys.next()) {
-                    code.setId(keys.getLong(1));
+        if (insertBatcher != null) {
+            try {
+                insertBatcher.submit(code).join();
+            } catch (CompletionException e) {
+                if (isUniqueViolation(e.getCause())) {
+                    throw new DuplicateActiveOtpException(code.getUserId(), code.getOperationId(), e.getCause());
                 }
+                logger.error("Error saving OTP code for user [{}]: {}", code.getUserId(), e.getCause().getMessage());
+                throw new RuntimeException(e.getCause());
             }
+            logger.debug("Saved OTP code id={} for user {}", code.getId(), code.getUserId());
+            return;
+        }
+        try {
+            insertAll(List.of(code));
             logger.info("Saved OTP code: {}", code);
         } catch (SQLException e) {
+            if (isUniqueViolation(e)) {
+                throw new DuplicateActiveOtpException(code.getUserId(), code.getOperationId(), e);
+            }
             logger.error("Error saving OTP code [{}]: {}", code.getCode(), e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public void saveAll(List<OtpCode> codes) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        try {
+            insertAll(codes);
+            logger.info("Saved {} OTP codes in one batch", codes.size());
+        } catch (SQLException e) {
+            if (isUniqueViolation(e)) {
+                // Какой именно код конфликтует, из batch-ошибки не извлечь — вызывающий повторит по одному
+                throw new DuplicateActiveOtpException(null, null, e);
+            }
+            logger.error("Error saving batch of {} OTP codes: {}", codes.size(), e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Вставляет коды одним JDBC batch в одной транзакции и проставляет им сгенерированные id.
+     * Используется как запись пачки для OtpCodeInsertBatcher.
+     * <p>
+     * Коды с operationId вставляются под advisory-блокировкой своей операции и только если
+     * у неё нет ACTIVE-кода ни в одной секции. Если хоть один код пропущен, пачка
+     * откатывается с SQLState 23505 — как при нарушении уникального индекса.
+     * </p>
+     *
+     * @throws SQLException если пачка отклонена (ни одна строка не вставлена)
+     */
+    public void insertAll(List<OtpCode> codes) throws SQLException {
+        Long[] userIds = new Long[codes.size()];
+        String[] operationIds = new String[codes.size()];
+        boolean locking = false;
+        for (int i = 0; i < userIds.length; i++) {
+            OtpCode code = codes.get(i);
+            userIds[i] = code.getUserId();
+            operationIds[i] = code.getOperationId();
+            locking |= code.getOperationId() != null;
+        }
+        Timestamp lookback = lookbackBound();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // Одиночный код без операции не блокирует ничего — обходимся автокоммитом
+            boolean single = codes.size() == 1 && !locking;
+            if (!single) {
+                conn.setAutoCommit(false);
+            }
+            try {
+                if (locking) {
+                    try (PreparedStatement lock = conn.prepareStatement(LOCK_OPERATIONS_SQL)) {
+                        lock.setArray(1, conn.createArrayOf("bigint", userIds));
+                        lock.setArray(2, conn.createArrayOf("varchar", operationIds));
+                        lock.executeQuery().close();
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    for (OtpCode code : codes) {
+                        if (code.getCreatedAt() == null) {
+                            code.setCreatedAt(LocalDateTime.now());
+                        }
+                        ps.setLong(1, code.getUserId());
+                        ps.setString(2, code.getOperationId());
+                        ps.setString(3, code.getCode());
+                        ps.setString(4, code.getStatus().name());
+                        ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
+                        ps.setLong(6, code.getUserId());
+                        ps.setString(7, code.getOperationId());
+                        ps.setTimestamp(8, lookback);
+                        ps.addBatch();
+                    }
+                    for (int affected : ps.executeBatch()) {
+                        if (affected == 0) {
+                            throw new SQLException("Active OTP code already exists for the operation", "23505");
+                        }
+                    }
+                    // Ключи возвращаются в порядке строк пачки
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (OtpCode code : codes) {
+                            if (!keys.next()) {
+                                throw new SQLException("Missing generated key for OTP code batch");
+                            }
+                            code.setId(keys.getLong(1));
+                        }
+                    }
+                }
+                if (!single) {
+                    conn.commit();
+                }
+            } catch (SQLException e) {
+                if (!single) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (!single) {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
     @Override
     public OtpCode findByCode(String code) {
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(SELECT_BY_CODE_SQL)) {
             ps.setString(1, code);
+            ps.setTimestamp(2, lookbackBound());
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     OtpCode found = mapRow(rs);
@@ -85,6 +327,149 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
         return null;
     }
 
+    @Override
+    public OtpCode findActive(Long userId, String operationId, String code) {
+        String sql = operationId != null ? SELECT_ACTIVE_SQL : SELECT_ACTIVE_NO_OPERATION_SQL;
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            ps.setLong(i++, userId);
+            if (operationId != null) {
+                ps.setString(i++, operationId);
+            }
+            ps.setString(i++, code);
+            ps.setTimestamp(i, lookbackBound());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRow(rs);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error finding active OTP for user [{}], operation [{}]: {}",
+                    userId, operationId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public OtpCode findActiveByOperation(Long userId, String operationId) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_ACTIVE_BY_OPERATION_SQL)) {
+            ps.setLong(1, userId);
+            ps.setString(2, operationId);
+            ps.setTimestamp(3, lookbackBound());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapRow(rs);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error finding active OTP for user [{}], operation [{}]: {}",
+                    userId, operationId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public OtpValidationResult consume(Long userId, String operationId, String code, Duration ttl) {
+        Timestamp threshold = Timestamp.valueOf(LocalDateTime.now().minus(ttl));
+        Timestamp lookback = lookbackBound();
+        String sql = operationId != null ? CONSUME_SQL : CONSUME_NO_OPERATION_SQL;
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            for (int branch = 0; branch < 2; branch++) {
+                ps.setLong(i++, userId);
+                if (operationId != null) {
+                    ps.setString(i++, operationId);
+                }
+                ps.setString(i++, code);
+                ps.setTimestamp(i++, lookback);
+            }
+            ps.setTimestamp(i++, lookback);
+            ps.setTimestamp(i++, threshold);
+            ps.setTimestamp(i++, lookback);
+            ps.setTimestamp(i, threshold);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return OtpValidationResult.NOT_FOUND;
+                }
+                if (rs.getBoolean("consumed")) {
+                    return OtpValidationResult.VALID;
+                }
+                if (rs.getBoolean("expired")) {
+                    return OtpValidationResult.EXPIRED;
+                }
+                OtpStatus status = OtpStatus.valueOf(rs.getString("status"));
+                // ACTIVE без обновления — код только что погасил параллельный запрос
+                return status == OtpStatus.EXPIRED ? OtpValidationResult.EXPIRED : OtpValidationResult.USED;
+            }
+        } catch (SQLException e) {
+            logger.error("Error consuming OTP for user [{}], operation [{}]: {}",
+                    userId, operationId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<OtpValidationResult> consumeAll(List<OtpCode> attempts, Duration ttl) {
+        int n = attempts.size();
+        OtpValidationResult[] results = new OtpValidationResult[n];
+        Arrays.fill(results, OtpValidationResult.NOT_FOUND);
+        if (n == 0) {
+            return Arrays.asList(results);
+        }
+        Integer[] idx = new Integer[n];
+        Long[] userIds = new Long[n];
+        String[] operationIds = new String[n];
+        String[] codes = new String[n];
+        for (int i = 0; i < n; i++) {
+            OtpCode a = attempts.get(i);
+            idx[i] = i;
+            userIds[i] = a.getUserId();
+            operationIds[i] = a.getOperationId();
+            codes[i] = a.getCode();
+        }
+        Timestamp threshold = Timestamp.valueOf(LocalDateTime.now().minus(ttl));
+        Timestamp lookback = lookbackBound();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(CONSUME_ALL_SQL)) {
+            ps.setArray(1, conn.createArrayOf("int4", idx));
+            ps.setArray(2, conn.createArrayOf("bigint", userIds));
+            ps.setArray(3, conn.createArrayOf("varchar", operationIds));
+            ps.setArray(4, conn.createArrayOf("varchar", codes));
+            ps.setTimestamp(5, lookback);
+            ps.setTimestamp(6, lookback);
+            ps.setTimestamp(7, lookback);
+            ps.setTimestamp(8, lookback);
+            ps.setTimestamp(9, threshold);
+            ps.setTimestamp(10, lookback);
+            ps.setTimestamp(11, threshold);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    OtpValidationResult result;
+                    if (rs.getBoolean("consumed")) {
+                        result = OtpValidationResult.VALID;
+                    } else if (rs.getBoolean("expired")) {
+                        result = OtpValidationResult.EXPIRED;
+                    } else {
+                        // ACTIVE без обновления — код погасил параллельный запрос или предыдущая попытка пакета
+                        OtpStatus status = OtpStatus.valueOf(rs.getString("status"));
+                        result = status == OtpStatus.EXPIRED ? OtpValidationResult.EXPIRED : OtpValidationResult.USED;
+                    }
+                    results[rs.getInt("idx")] = result;
+                }
+            }
+            logger.debug("Consumed batch of {} OTP attempts", n);
+            return Arrays.asList(results);
+        } catch (SQLException e) {
+            logger.error("Error consuming batch of {} OTP attempts: {}", n, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public List<OtpCode> findAllByUser(Long userId) {
         List<OtpCode> list = new ArrayList<>();
@@ -118,19 +503,54 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
     }
 
     @Override
-    public void markAsExpiredOlderThan(Duration ttl) {
+    public int expireBatch(Duration ttl, int limit) {
         LocalDateTime threshold = LocalDateTime.now().minus(ttl);
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(UPDATE_MARK_EXPIRED_SQL)) {
-            ps.setTimestamp(1, Timestamp.valueOf(threshold));
+             PreparedStatement ps = conn.prepareStatement(UPDATE_EXPIRE_BATCH_SQL)) {
+            Timestamp lookback = lookbackBound();
+            ps.setTimestamp(1, lookback);
+            ps.setTimestamp(2, lookback);
+            ps.setTimestamp(3, Timestamp.valueOf(threshold));
+            ps.setInt(4, limit);
             int affected = ps.executeUpdate();
-            logger.info("Marked {} OTP codes as EXPIRED older than {}", affected, threshold);
+            logger.debug("Marked {} OTP codes as EXPIRED older than {}", affected, threshold);
+            return affected;
         } catch (SQLException e) {
             logger.error("Error marking expired OTP codes older than {}: {}", threshold, e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public int expireCodes(List<OtpCode> codes) {
+        if (codes.isEmpty()) {
+            return 0;
+        }
+        Long[] ids = new Long[codes.size()];
+        Timestamp[] createdAt = new Timestamp[codes.size()];
+        Timestamp oldest = null;
+        for (int i = 0; i < ids.length; i++) {
+            OtpCode c = codes.get(i);
+            ids[i] = c.getId();
+            createdAt[i] = Timestamp.valueOf(c.getCreatedAt());
+            if (oldest == null || createdAt[i].before(oldest)) {
+                oldest = createdAt[i];
+            }
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_EXPIRE_CODES_SQL)) {
+            ps.setTimestamp(1, oldest);
+            ps.setArray(2, conn.createArrayOf("bigint", ids));
+            ps.setArray(3, conn.createArrayOf("timestamp", createdAt));
+            int affected = ps.executeUpdate();
+            logger.debug("Marked {} of {} scheduled OTP codes as EXPIRED", affected, codes.size());
+            return affected;
+        } catch (SQLException e) {
+            logger.error("Error expiring {} OTP codes: {}", codes.size(), e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void deleteAllByUserId(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
@@ -144,6 +564,28 @@ public class OtpCodeDaoImpl implements OtpCodeDao {
         }
     }
 
+    /**
+     * Включает микропакетную вставку: save() будет ждать записи своей пачки.
+     */
+    public void setInsertBatcher(OtpCodeInsertBatcher insertBatcher) {
+        this.insertBatcher = insertBatcher;
+    }
+
+    // 23505 — нарушение уникального индекса (активный код для той же операции уже есть);
+    // у batch-ошибки причина может лежать в цепочке getNextException
+    private static boolean isUniqueViolation(Throwable e) {
+        for (SQLException s = e instanceof SQLException ? (SQLException) e : null; s != null; s = s.getNextException()) {
+            if ("23505".equals(s.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Timestamp lookbackBound() {
+        return Timestamp.valueOf(LocalDateTime.now().minus(lookback));
+    }
+
     /**
      * Преобразует текущую строку ResultSet в объект OtpCode.
      */
@@ -0,0 +1,228 @@
+package otp.dao.impl;
+
+import otp.model.OtpCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Микропакетная вставка OTP-кодов.
+ * <p>
+ * Параллельные вызовы submit() складываются в общую очередь; потоки-писатели забирают
+ * первую запись, добирают остальные в течение lingerMs (или до maxBatch строк) и пишут
+ * их одним JDBC batch. Каждый вызывающий получает future, которое завершается после
+ * фиксации пачки, когда в его OtpCode уже проставлен сгенерированный id. Если пачка
+ * отклонена целиком (например, одна строка нарушает внешний ключ), строки
+ * записываются по одной, чтобы ошибка досталась только виновной строке.
+ * </p>
+ */
+public class OtpCodeInsertBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(OtpCodeInsertBatcher.class);
+
+    /** Верхние границы корзин гистограммы размеров пачек */
+    private static final int[] SIZE_BUCKETS = {1, 4, 16, 64, 256, 1024, Integer.MAX_VALUE};
+
+    /**
+     * Запись пачки в БД: проставляет id в каждом OtpCode.
+     */
+    @FunctionalInterface
+    public interface Writer {
+        void write(List<OtpCode> codes) throws SQLException;
+    }
+
+    private final Writer writer;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final BlockingQueue<Pending> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder waitNanosTotal = new LongAdder();
+    private final AtomicLong maxBatchSeen = new AtomicLong();
+    private final LongAdder[] sizeHistogram = new LongAdder[SIZE_BUCKETS.length];
+
+    /**
+     * @param writer        запись пачки в БД
+     * @param maxBatch      максимальное число строк в пачке
+     * @param lingerMs      сколько ждать добора пачки после первой записи
+     * @param writers       число потоков-писателей
+     * @param queueCapacity ёмкость очереди ожидающих вставок
+     */
+    public OtpCodeInsertBatcher(Writer writer, int maxBatch, long lingerMs, int writers, int queueCapacity) {
+        this.writer = writer;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < sizeHistogram.length; i++) {
+            sizeHistogram[i] = new LongAdder();
+        }
+        for (int i = 0; i < writers; i++) {
+            Thread t = new Thread(this::drainLoop, "otp-insert-batcher-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    /**
+     * Ставит код в очередь на вставку.
+     *
+     * @return future, завершающееся после фиксации пачки (id уже проставлен)
+     */
+    public CompletableFuture<Void> submit(OtpCode code) {
+        Pending p = new Pending(code);
+        if (!running || !queue.offer(p)) {
+            failures.increment();
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException(running ? "OTP insert queue is full" : "OTP insert batcher is stopped"));
+        }
+        return p.future;
+    }
+
+    /**
+     * Дописывает очередь и останавливает потоки-писатели.
+     */
+    public void close() {
+        running = false;
+        for (Thread t : threads) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return снимок счётчиков: строки, пачки, распределение размеров пачек, ожидание в очереди
+     */
+    public Map<String, Object> metrics() {
+        long b = batches.sum();
+        long r = rows.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queueDepth", queue.size());
+        m.put("rows", r);
+        m.put("batches", b);
+        m.put("avgBatchSize", b == 0 ? 0 : r / b);
+        m.put("maxBatchSize", maxBatchSeen.get());
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        int lower = 1;
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            int upper = SIZE_BUCKETS[i];
+            String label = upper == Integer.MAX_VALUE ? lower + "+" : (lower == upper ? "" + upper : lower + "-" + upper);
+            histogram.put(label, sizeHistogram[i].sum());
+            lower = upper + 1;
+        }
+        m.put("batchSizeHistogram", histogram);
+        m.put("avgQueueWaitMicros", r == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanosTotal.sum() / r));
+        m.put("fallbacks", fallbacks.sum());
+        m.put("failures", failures.sum());
+        return m;
+    }
+
+    private void drainLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        long now = System.nanoTime();
+        List<OtpCode> codes = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            codes.add(p.code);
+            waitNanosTotal.add(now - p.enqueuedAt);
+        }
+        record(batch.size());
+        try {
+            writer.write(codes);
+            batch.forEach(p -> p.future.complete(null));
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                failures.increment();
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            fallbacks.increment();
+            logger.warn("OTP insert batch of {} failed, inserting rows one by one: {}", batch.size(), e.getMessage());
+            for (Pending p : batch) {
+                try {
+                    writer.write(List.of(p.code));
+                    p.future.complete(null);
+                } catch (SQLException | RuntimeException rowError) {
+                    failures.increment();
+                    p.future.completeExceptionally(rowError);
+                }
+            }
+        }
+    }
+
+    private void record(int size) {
+        rows.add(size);
+        batches.increment();
+        maxBatchSeen.accumulateAndGet(size, Math::max);
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (size <= SIZE_BUCKETS[i]) {
+                sizeHistogram[i].increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Код, ожидающий вставки.
+     */
+    private static final class Pending {
+        final OtpCode code;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(OtpCode code) {
+            this.code = code;
+        }
+    }
+}
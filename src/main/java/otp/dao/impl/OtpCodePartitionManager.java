@@ -0,0 +1,270 @@
+package otp.dao.impl;
+
+import otp.config.DatabaseManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Обслуживание секций таблицы otp_codes.
+ * <p>
+ * Заранее создаёт секции на premake интервалов вперёд и удаляет целиком
+ * секции, которые целиком старше срока хранения, вместо построчного DELETE.
+ * Границы секции восстанавливаются из её имени (otp_codes_pYYYYMMDD
+ * или otp_codes_pYYYYMMDDHH), поэтому секции, созданные вручную под
+ * другими именами, не трогаются.
+ * </p>
+ * <p>
+ * Каждой секции добавляется уникальный частичный индекс по (user_id, operation_id)
+ * среди ACTIVE-кодов — он не даёт выдать второй активный код на ту же операцию.
+ * На родительской таблице такой индекс невозможен (уникальный индекс секционированной
+ * таблицы обязан включать ключ секционирования created_at), поэтому через границу
+ * секций второй код не пропускает сама вставка OtpCodeDaoImpl: она проверяет все
+ * секции под advisory-блокировкой операции. Индекс секции остаётся страховкой
+ * от записи в обход DAO.
+ * </p>
+ */
+public class OtpCodePartitionManager {
+    private static final Logger logger = LoggerFactory.getLogger(OtpCodePartitionManager.class);
+
+    private static final String PREFIX = "otp_codes_p";
+    private static final String LIST_PARTITIONS_SQL =
+            "SELECT c.relname, i.inhdetachpending FROM pg_inherits i"
+                    + " JOIN pg_class c ON c.oid = i.inhrelid"
+                    + " JOIN pg_class p ON p.oid = i.inhparent"
+                    + " WHERE p.relname = 'otp_codes'";
+
+    /** Шаг нарезки секций */
+    public enum Granularity {
+        DAY(ChronoUnit.DAYS, DateTimeFormatter.ofPattern("yyyyMMdd")),
+        HOUR(ChronoUnit.HOURS, DateTimeFormatter.ofPattern("yyyyMMddHH"));
+
+        final ChronoUnit unit;
+        final DateTimeFormatter suffix;
+
+        Granularity(ChronoUnit unit, DateTimeFormatter suffix) {
+            this.unit = unit;
+            this.suffix = suffix;
+        }
+    }
+
+    private final Granularity granularity;
+    private final int premake;
+    private final Duration retention;
+    private final long maintenanceIntervalMs;
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Set<String> uniqueIndexed = ConcurrentHashMap.newKeySet();
+    private volatile List<String> unindexed = List.of();
+    private volatile int partitions;
+    private volatile long lastMaintenanceAt;
+
+    /**
+     * @param granularity           шаг нарезки (DAY или HOUR)
+     * @param premake               число будущих секций, создаваемых заранее
+     * @param retention             срок хранения кодов; секция удаляется, когда её верхняя граница старше now - retention
+     * @param maintenanceIntervalMs период обслуживания в миллисекундах
+     */
+    public OtpCodePartitionManager(Granularity granularity, int premake, Duration retention,
+                                   long maintenanceIntervalMs) {
+        this.granularity = granularity;
+        this.premake = premake;
+        this.retention = retention;
+        this.maintenanceIntervalMs = maintenanceIntervalMs;
+    }
+
+    /**
+     * Синхронно создаёт секции (вставка без подходящей секции завершится ошибкой,
+     * поэтому приложение не стартует, если это не удалось) и запускает фоновое обслуживание.
+     */
+    public synchronized void start() {
+        maintain();
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "otp-partition-manager");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    maintain();
+                } catch (Exception e) {
+                    logger.error("OTP partition maintenance failed: {}", e.getMessage(), e);
+                }
+            }, maintenanceIntervalMs, maintenanceIntervalMs, TimeUnit.MILLISECONDS);
+            logger.info("OTP partition manager started: {} partitions, premake={}, retention={}",
+                    granularity, premake, retention);
+        }
+    }
+
+    /** Останавливает фоновое обслуживание */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Создаёт недостающие секции от текущей до premake вперёд и удаляет устаревшие.
+     */
+    public void maintain() {
+        LocalDateTime current = LocalDateTime.now().truncatedTo(granularity.unit);
+        LocalDateTime dropBefore = LocalDateTime.now().minus(retention);
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement st = conn.createStatement()) {
+            Set<String> existing = new HashSet<>();
+            Set<String> detachPending = new HashSet<>();
+            try (ResultSet rs = st.executeQuery(LIST_PARTITIONS_SQL)) {
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
+                    if (rs.getBoolean(2)) {
+                        detachPending.add(rs.getString(1));
+                    }
+                }
+            }
+
+            for (int i = 0; i <= premake; i++) {
+                LocalDateTime from = current.plus(i, granularity.unit);
+                String name = PREFIX + from.format(granularity.suffix);
+                if (existing.add(name)) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF otp_codes"
+                            + " FOR VALUES FROM ('" + from + "') TO ('" + from.plus(1, granularity.unit) + "')");
+                    created.increment();
+                    logger.info("Created OTP partition {}", name);
+                }
+            }
+
+            Iterator<String> it = existing.iterator();
+            while (it.hasNext()) {
+                String name = it.next();
+                LocalDateTime upper = upperBound(name);
+                if (upper != null && !upper.isAfter(dropBefore)) {
+                    // DROP присоединённой секции берёт ACCESS EXCLUSIVE на всю otp_codes;
+                    // DETACH CONCURRENTLY не блокирует вставки и чтения, и отсоединённая
+                    // таблица удаляется уже без блокировки родителя. Прерванное отсоединение
+                    // (inhdetachpending) завершается через FINALIZE
+                    st.executeUpdate("ALTER TABLE otp_codes DETACH PARTITION " + name
+                            + (detachPending.contains(name) ? " FINALIZE" : " CONCURRENTLY"));
+                    st.executeUpdate("DROP TABLE IF EXISTS " + name);
+                    it.remove();
+                    dropped.increment();
+                    logger.info("Dropped OTP partition {} (older than {})", name, dropBefore);
+                }
+            }
+            for (String name : existing) {
+                ensureUniqueIndex(st, name);
+            }
+            uniqueIndexed.retainAll(existing);
+            Set<String> missing = new TreeSet<>(existing);
+            missing.removeAll(uniqueIndexed);
+            unindexed = List.copyOf(missing);
+            partitions = existing.size();
+            lastMaintenanceAt = System.currentTimeMillis();
+        } catch (SQLException e) {
+            errors.increment();
+            logger.error("Error maintaining otp_codes partitions: {}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Уникальный индекс активных кодов операции. Строится CONCURRENTLY, чтобы не блокировать
+    // вставки в живую секцию. Секции, созданные до появления индекса, могут содержать несколько
+    // ACTIVE-кодов одной операции: как и скрипт миграции, оставляем активным только последний.
+    // Прерванная сборка оставляет INVALID-индекс, который IF NOT EXISTS пропустил бы, — удаляем его.
+    // При неудаче секция остаётся в метрике unindexedPartitions, попытка повторяется при следующем обслуживании
+    private void ensureUniqueIndex(Statement st, String name) {
+        if (uniqueIndexed.contains(name)) {
+            return;
+        }
+        String index = name + "_active_op_uq";
+        try {
+            Boolean valid = null;
+            try (ResultSet rs = st.executeQuery("SELECT i.indisvalid FROM pg_class c"
+                    + " JOIN pg_index i ON i.indexrelid = c.oid WHERE c.relname = '" + index + "'")) {
+                if (rs.next()) {
+                    valid = rs.getBoolean(1);
+                }
+            }
+            if (valid == null || !valid) {
+                int expired = st.executeUpdate("UPDATE " + name + " o SET status = 'EXPIRED'"
+                        + " WHERE o.status = 'ACTIVE' AND o.operation_id IS NOT NULL"
+                        + " AND EXISTS (SELECT 1 FROM " + name + " n"
+                        + " WHERE n.user_id = o.user_id AND n.operation_id = o.operation_id"
+                        + " AND n.status = 'ACTIVE' AND (n.created_at, n.id) > (o.created_at, o.id))");
+                if (expired > 0) {
+                    logger.warn("Expired {} duplicate active OTP codes in {}", expired, name);
+                }
+                if (valid != null) {
+                    st.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+                }
+                st.executeUpdate("CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS " + index + " ON " + name
+                        + " (user_id, operation_id) WHERE status = 'ACTIVE'");
+            }
+            uniqueIndexed.add(name);
+        } catch (SQLException e) {
+            errors.increment();
+            logger.warn("Cannot create unique active-operation index on {}: {}", name, e.getMessage());
+        }
+    }
+
+    // Верхняя граница секции по её имени; null — имя не из нашей схемы именования
+    private LocalDateTime upperBound(String name) {
+        if (!name.startsWith(PREFIX)) {
+            return null;
+        }
+        String suffix = name.substring(PREFIX.length());
+        try {
+            if (suffix.length() == 8) {
+                return LocalDate.parse(suffix, Granularity.DAY.suffix).atStartOfDay().plusDays(1);
+            }
+            if (suffix.length() == 10) {
+                return LocalDateTime.parse(suffix, Granularity.HOUR.suffix).plusHours(1);
+            }
+        } catch (DateTimeParseException e) {
+            logger.debug("Skipping partition with unexpected name {}", name);
+        }
+        return null;
+    }
+
+    /**
+     * @return снимок счётчиков обслуживания секций
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("granularity", granularity.name());
+        m.put("partitions", partitions);
+        // Секции без уникального индекса активных кодов: идемпотентность генерации в них не гарантирована
+        m.put("unindexedPartitions", unindexed);
+        m.put("created", created.sum());
+        m.put("dropped", dropped.sum());
+        m.put("errors", errors.sum());
+        m.put("lastMaintenanceAt", lastMaintenanceAt);
+        return m;
+    }
+}
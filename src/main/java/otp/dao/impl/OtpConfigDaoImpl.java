@@ -17,8 +17,10 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
 
     private static final String SELECT_CONFIG_SQL =
             "SELECT id, length, ttl_seconds FROM otp_config LIMIT 1";
+    private static final String SELECT_VERSION_SQL =
+            "SELECT version FROM otp_config LIMIT 1";
     private static final String UPDATE_CONFIG_SQL =
-            "UPDATE otp_config SET length = ?, ttl_seconds = ? WHERE id = ?";
+            "UPDATE otp_config SET length = ?, ttl_seconds = ?, version = version + 1 WHERE id = ?";
     private static final String INSERT_DEFAULT_SQL =
             "INSERT INTO otp_config (length, ttl_seconds) VALUES (?, ?)";
 
@@ -33,7 +35,7 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
                 cfg.setId(rs.getLong("id"));
                 cfg.setLength(rs.getInt("length"));
                 cfg.setTtlSeconds(rs.getInt("ttl_seconds"));
-                logger.info("Loaded OTP config: {}", cfg);
+                logger.debug("Loaded OTP config: {}", cfg);
                 return cfg;
             }
         } catch (SQLException e) {
@@ -44,6 +46,18 @@ public class OtpConfigDaoImpl implements OtpConfigDao {
         return null;
     }
 
+    @Override
+    public long getVersion() {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_VERSION_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong("version") : 0L;
+        } catch (SQLException e) {
+            logger.error("Error loading OTP config version: {}", e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void updateConfig(OtpConfig config) {
         try (Connection conn = DatabaseManager.getConnection();
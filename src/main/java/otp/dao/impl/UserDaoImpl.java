@@ -9,6 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -24,10 +25,14 @@ public class UserDaoImpl implements UserDao {
             "SELECT id, username, password_hash, role FROM users WHERE username = ?";
     private static final String SELECT_BY_ID_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE id = ?";
+    private static final String SELECT_BY_IDS_SQL =
+            "SELECT id, username, password_hash, role FROM users WHERE id = ANY(?)";
     private static final String SELECT_ALL_USERS_SQL =
             "SELECT id, username, password_hash, role FROM users WHERE role <> 'ADMIN'";
     private static final String SELECT_ADMIN_EXISTS_SQL =
             "SELECT 1 FROM users WHERE role = 'ADMIN' LIMIT 1";
+    private static final String UPDATE_PASSWORD_HASH_SQL =
+            "UPDATE users SET password_hash = ? WHERE id = ?";
     private static final String DELETE_USER_SQL =
             "DELETE FROM users WHERE id = ?";
 
@@ -92,6 +97,28 @@ public class UserDaoImpl implements UserDao {
         return null;
     }
 
+    @Override
+    public List<User> findByIds(Collection<Long> ids) {
+        List<User> users = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return users;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SELECT_BY_IDS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapRow(rs));
+                }
+            }
+            logger.debug("Found {} of {} users by ids", users.size(), ids.size());
+            return users;
+        } catch (SQLException e) {
+            logger.error("Error finding {} users by ids: {}", ids.size(), e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public List<User> findAllUsersWithoutAdmins() {
         List<User> users = new ArrayList<>();
@@ -123,6 +150,20 @@ public class UserDaoImpl implements UserDao {
         }
     }
 
+    @Override
+    public void updatePasswordHash(Long userId, String passwordHash) {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_PASSWORD_HASH_SQL)) {
+            ps.setString(1, passwordHash);
+            ps.setLong(2, userId);
+            int affected = ps.executeUpdate();
+            logger.info("Updated password hash of user id {}: affected {} rows", userId, affected);
+        } catch (SQLException e) {
+            logger.error("Error updating password hash of user id [{}]: {}", userId, e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void delete(Long userId) {
         try (Connection conn = DatabaseManager.getConnection();
@@ -1,40 +1,203 @@
 package otp.main;
 
 import com.sun.net.httpserver.HttpServer;
+import otp.api.AdminController;
+import otp.api.AuthController;
 import otp.api.Dispatcher;
+import otp.api.RateLimits;
+import otp.api.UserController;
+import otp.config.AppConfig;
+import otp.config.DatabaseManager;
+import otp.config.ServerExecutorFactory;
+import otp.dao.OtpCodeDao;
+import otp.dao.UserDao;
+import otp.dao.impl.CachingOtpConfigDao;
+import otp.dao.impl.InMemoryOtpCodeDao;
+import otp.dao.impl.OtpCodeDaoImpl;
+import otp.dao.impl.OtpCodeInsertBatcher;
+import otp.dao.impl.OtpCodePartitionManager;
+import otp.dao.impl.OtpConfigDaoImpl;
+import otp.dao.impl.UserDaoImpl;
+import otp.service.AdminService;
+import otp.service.OtpDedupeCache;
+import otp.service.OtpExpirationScheduler;
+import otp.service.OtpService;
+import otp.service.PasswordService;
+import otp.service.UserService;
+import otp.service.notification.NotificationChannelRegistry;
+import otp.service.notification.NotificationDispatcher;
+import otp.util.AuthMode;
+import otp.util.JwtUtils;
+import otp.util.MetricsRegistry;
+import otp.util.Pbkdf2PasswordHasher;
+import otp.util.TokenManager;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.util.Properties;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Точка входа приложения. Поднимает HTTP-сервер на порту из application.properties
  * и регистрирует все маршруты через Dispatcher.
+ * Здесь же создаются общие для всех контроллеров DAO и сервисы,
+ * а обработчики выполняются на исполнителе из ServerExecutorFactory,
+ * а не на единственном потоке-диспетчере HttpServer.
  */
 public class Application {
     public static void main(String[] args) {
         try {
-            // Загружаем конфигурацию
-            Properties config = new Properties();
-            try (InputStream is = Application.class.getClassLoader()
-                    .getResourceAsStream("application.properties")) {
-                if (is != null) {
-                    config.load(is);
-                }
+            int port = AppConfig.getInt("server.port", 8080);
+            int backlog = AppConfig.getInt("server.backlog", 0);
+
+            // Общие DAO: конфигурация OTP кэшируется в памяти и разделяется всеми сервисами
+            CachingOtpConfigDao configDao = new CachingOtpConfigDao(
+                    new OtpConfigDaoImpl(),
+                    AppConfig.getLong("otp.config.pollIntervalMs", 5_000));
+            configDao.initDefaultConfigIfEmpty();
+            configDao.start();
+            UserDao userDao = new UserDaoImpl();
+            OtpCodeDaoImpl jdbcCodeDao = new OtpCodeDaoImpl(
+                    Duration.ofHours(AppConfig.getLong("otp.lookbackHours", 24)));
+            // Микропакетная вставка кодов: параллельные save() пишутся одним JDBC batch
+            OtpCodeInsertBatcher insertBatcher = null;
+            if (AppConfig.getBoolean("otp.insert.batching", true)) {
+                insertBatcher = new OtpCodeInsertBatcher(
+                        jdbcCodeDao::insertAll,
+                        AppConfig.getInt("otp.insert.maxBatch", 256),
+                        AppConfig.getLong("otp.insert.lingerMs", 2),
+                        AppConfig.getInt("otp.insert.writers", 2),
+                        AppConfig.getInt("otp.insert.queueCapacity", 10_000));
+                jdbcCodeDao.setInsertBatcher(insertBatcher);
+                MetricsRegistry.register("otpInserts", insertBatcher::metrics);
             }
-            int port = Integer.parseInt(config.getProperty("server.port", "8080"));
+            OtpCodeInsertBatcher inserts = insertBatcher;
+
+            // Секции otp_codes: создаём до приёма запросов, старые удаляем целиком
+            OtpCodePartitionManager partitionManager = new OtpCodePartitionManager(
+                    OtpCodePartitionManager.Granularity.valueOf(
+                            AppConfig.get("otp.partition.granularity", "DAY").trim().toUpperCase()),
+                    AppConfig.getInt("otp.partition.premake", 7),
+                    Duration.ofHours(AppConfig.getLong("otp.partition.retentionHours", 24 * 30)),
+                    AppConfig.getLong("otp.partition.maintenanceIntervalMs", 3_600_000));
+            partitionManager.start();
+            MetricsRegistry.register("partitions", partitionManager::metrics);
+
+            // Хранилище кодов: jdbc — каждый запрос в БД, memory — активные коды в памяти
+            // с отложенной записью в otp_codes (только для одного экземпляра сервиса)
+            OtpCodeDao codeDao = jdbcCodeDao;
+            InMemoryOtpCodeDao memoryCodeDao = null;
+            if ("memory".equalsIgnoreCase(AppConfig.get("otp.store", "jdbc").trim())) {
+                memoryCodeDao = new InMemoryOtpCodeDao(
+                        jdbcCodeDao,
+                        InMemoryOtpCodeDao.Durability.valueOf(
+                                AppConfig.get("otp.store.durability", "ASYNC").trim().toUpperCase()),
+                        AppConfig.getInt("otp.store.batchSize", 500),
+                        AppConfig.getLong("otp.store.lingerMs", 5),
+                        AppConfig.getInt("otp.store.queueCapacity", 100_000),
+                        AppConfig.getInt("otp.store.idBlockSize", 1_000),
+                        AppConfig.getLong("otp.store.enqueueTimeoutMs", 1_000));
+                memoryCodeDao.recover(Duration.ofSeconds(configDao.getConfig().getTtlSeconds()));
+                MetricsRegistry.register("otpStore", memoryCodeDao::metrics);
+                codeDao = memoryCodeDao;
+            }
+            InMemoryOtpCodeDao writeBehind = memoryCodeDao;
+
+            // Сервисы и контроллеры
+            NotificationChannelRegistry channelRegistry = new NotificationChannelRegistry(
+                    AppConfig.getBoolean("notification.warmUp", true),
+                    AppConfig.getInt("notification.failureThreshold", 5));
+            MetricsRegistry.register("channels", channelRegistry::metrics);
+            NotificationDispatcher notificationDispatcher = new NotificationDispatcher(channelRegistry);
+            MetricsRegistry.register("notifications", notificationDispatcher::metrics);
+            AuthMode authMode = AuthMode.valueOf(AppConfig.get("auth.mode", "SESSION").trim().toUpperCase());
+            if (authMode == AuthMode.JWT && !JwtUtils.isSecretConfigured()) {
+                throw new IllegalStateException("auth.jwt.secret must be set when auth.mode=jwt");
+            }
+            if (authMode == AuthMode.JWT) {
+                MetricsRegistry.register("jwtCache", JwtUtils::metrics);
+            }
+            if (authMode == AuthMode.SESSION) {
+                TokenManager.start(
+                        AppConfig.getLong("auth.session.ttlMinutes", 30),
+                        AppConfig.getInt("auth.session.maxSessions", 100_000),
+                        AppConfig.getLong("auth.session.sweepIntervalMs", 10_000));
+                MetricsRegistry.register("sessions", TokenManager::metrics);
+            }
+            // Истечение кодов точно по сроку (колесо таймеров) и страховочная уборка
+            OtpExpirationScheduler expiryScheduler = new OtpExpirationScheduler(
+                    codeDao, configDao,
+                    AppConfig.getLong("otp.expiry.intervalMs", 300_000),
+                    AppConfig.getInt("otp.expiry.minBatchSize", 100),
+                    AppConfig.getInt("otp.expiry.maxBatchSize", 5_000),
+                    AppConfig.getLong("otp.expiry.targetBatchMs", 50),
+                    AppConfig.getLong("otp.expiry.maxRunMs", 10_000),
+                    AppConfig.getLong("otp.expiry.wheel.tickMs", 100),
+                    AppConfig.getInt("otp.expiry.wheel.slots", 512),
+                    AppConfig.getInt("otp.expiry.wheel.levels", 3),
+                    AppConfig.getInt("otp.expiry.flushBatchSize", 1_000),
+                    AppConfig.getLong("otp.expiry.flushIntervalMs", 500));
+            MetricsRegistry.register("expirySweeper", expiryScheduler::metrics);
+            expiryScheduler.start();
+            OtpDedupeCache dedupeCache = new OtpDedupeCache(
+                    AppConfig.getInt("otp.idempotency.cacheMaxEntries", 100_000));
+            MetricsRegistry.register("otpDedupe", dedupeCache::metrics);
+            OtpService otpService = new OtpService(
+                    codeDao, configDao, userDao, notificationDispatcher, expiryScheduler, dedupeCache);
+            int cores = Runtime.getRuntime().availableProcessors();
+            PasswordService passwordService = new PasswordService(
+                    new Pbkdf2PasswordHasher(AppConfig.getInt("auth.password.pbkdf2.iterations", 600_000)),
+                    AppConfig.getInt("auth.password.threads", Math.max(1, cores / 2)),
+                    AppConfig.getInt("auth.password.queueCapacity", 64));
+            MetricsRegistry.register("passwordHashing", passwordService::metrics);
+            RateLimits rateLimits = new RateLimits();
+            MetricsRegistry.register("rateLimits", rateLimits::metrics);
+            Dispatcher dispatcher = new Dispatcher(
+                    new AuthController(new UserService(userDao, authMode, passwordService)),
+                    new UserController(otpService, AppConfig.getInt("otp.batch.maxItems", 1_000), rateLimits),
+                    new AdminController(new AdminService(configDao, userDao, codeDao)),
+                    authMode,
+                    rateLimits);
 
             // Создаём HTTP-сервер
-            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), backlog);
+            ExecutorService executor = ServerExecutorFactory.create();
+            server.setExecutor(executor);
 
             // Регистрируем маршруты
-            Dispatcher dispatcher = new Dispatcher();
             dispatcher.registerRoutes(server);
 
+            // Корректная остановка: дожидаемся текущих запросов, гасим исполнитель и пул БД
+            int stopDelay = AppConfig.getInt("server.shutdown.delaySeconds", 2);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(stopDelay);
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(stopDelay, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                notificationDispatcher.shutdown(AppConfig.getLong("notification.shutdownTimeoutMs", 5_000));
+                channelRegistry.close();
+                passwordService.close();
+                rateLimits.stop();
+                TokenManager.stop();
+                expiryScheduler.stop();
+                if (writeBehind != null) {
+                    writeBehind.close();
+                }
+                if (inserts != null) {
+                    inserts.close();
+                }
+                partitionManager.stop();
+                configDao.stop();
+                DatabaseManager.shutdown();
+            }, "shutdown"));
+
             // Запускаем сервер
             server.start();
-            System.out.println("Server started on http://localhost:" + port);
+            System.out.println("Server started on http://localhost:" + port + " (auth mode " + authMode + ")");
         } catch (IOException e) {
             System.err.println("Failed to start server: " + e.getMessage());
             e.printStackTrace();
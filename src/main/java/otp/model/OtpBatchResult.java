@@ -0,0 +1,41 @@
+package otp.model;
+
+/**
+ * Исход обработки одного элемента пакетного запроса (генерации или проверки OTP).
+ * Элементы ответа идут в том же порядке, что и элементы запроса.
+ */
+public class OtpBatchResult {
+    private final Long userId;
+    private final String operationId;
+    private final String status;
+    private final String error;
+
+    /**
+     * @param userId      пользователь из элемента запроса
+     * @param operationId операция из элемента запроса (может быть null)
+     * @param status      исход элемента
+     * @param error       причина отказа или null
+     */
+    public OtpBatchResult(Long userId, String operationId, String status, String error) {
+        this.userId = userId;
+        this.operationId = operationId;
+        this.status = status;
+        this.error = error;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getOperationId() {
+        return operationId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,28 @@
+package otp.model;
+
+/**
+ * Исход запроса генерации OTP-кода.
+ * created — выдан и поставлен в очередь на отправку новый код;
+ * иначе у операции уже есть активный код, и повторно он не отправлялся.
+ */
+public class OtpGenerationResult {
+    private final boolean created;
+    private final long expiresInSeconds;
+
+    /**
+     * @param created          true, если выдан новый код
+     * @param expiresInSeconds сколько секунд осталось до истечения кода
+     */
+    public OtpGenerationResult(boolean created, long expiresInSeconds) {
+        this.created = created;
+        this.expiresInSeconds = expiresInSeconds;
+    }
+
+    public boolean isCreated() {
+        return created;
+    }
+
+    public long getExpiresInSeconds() {
+        return expiresInSeconds;
+    }
+}
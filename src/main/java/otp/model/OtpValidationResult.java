@@ -0,0 +1,15 @@
+package otp.model;
+
+/**
+ * Результат попытки погасить одноразовый код (OTP).
+ * VALID — код был активен и не просрочен, теперь помечен USED;
+ * EXPIRED — код найден, но его TTL истёк;
+ * USED — код уже был использован (в том числе параллельным запросом);
+ * NOT_FOUND — кода с такими user_id, operation_id и значением нет.
+ */
+public enum OtpValidationResult {
+    VALID,
+    EXPIRED,
+    USED,
+    NOT_FOUND
+}
@@ -5,6 +5,7 @@ import otp.dao.OtpCodeDao;
 import otp.dao.UserDao;
 import otp.model.OtpConfig;
 import otp.model.User;
+import otp.util.TokenManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,8 +24,11 @@ public class AdminService {
     }
 
     public void updateOtpConfig(int length, int ttlSeconds) {
-        // Создаем объект OtpConfig (id обычно не важен при обновлении)
-        OtpConfig cfg = new OtpConfig(1L, length, ttlSeconds);
+        if (length <= 0 || ttlSeconds <= 0) {
+            throw new IllegalArgumentException("length and ttlSeconds must be positive");
+        }
+        // Обновляем единственную запись; кэширующий DAO атомарно заменит снимок
+        OtpConfig cfg = new OtpConfig(configDao.getConfig().getId(), length, ttlSeconds);
         configDao.updateConfig(cfg);
         logger.info("OTP config updated: length={}, ttlSeconds={}", length, ttlSeconds);
     }
@@ -36,7 +40,8 @@ public class AdminService {
     public void deleteUserAndCodes(Long userId) {
         codeDao.deleteAllByUserId(userId);
         userDao.delete(userId);
-        logger.info("Deleted user {} and their OTP codes", userId);
+        int sessions = TokenManager.revokeAllForUser(userId);
+        logger.info("Deleted user {} and their OTP codes, revoked {} sessions", userId, sessions);
     }
 }
 
@@ -0,0 +1,67 @@
+package otp.service;
+
+import otp.util.ExpiringCache;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кеш активных кодов по (userId, operationId) для идемпотентной генерации.
+ * <p>
+ * Запись живёт до истечения TTL кода, поэтому повторный запрос генерации для той же
+ * операции отвечается без обращения к БД. Кеш — лишь ускорение: источник истины —
+ * уникальный частичный индекс ACTIVE (user_id, operation_id) в секциях otp_codes,
+ * промах кеша приводит к обычной вставке, а её конфликт — к поиску существующего кода.
+ * Кеш свой у каждого экземпляра сервиса: о погашении кода на другом узле он не узнает,
+ * и до истечения TTL повторная генерация здесь будет отвечать, что код активен.
+ * </p>
+ */
+public class OtpDedupeCache {
+    private final ExpiringCache<String, Long> cache;
+    private final LongAdder invalidated = new LongAdder();
+
+    /**
+     * @param maxEntries максимальное число записей; 0 отключает кеш
+     */
+    public OtpDedupeCache(int maxEntries) {
+        this.cache = new ExpiringCache<>(maxEntries);
+    }
+
+    /**
+     * @return момент истечения активного кода операции (мс от эпохи) или 0, если записи нет
+     */
+    public long expiresAt(Long userId, String operationId) {
+        Long expiresAtMs = cache.get(key(userId, operationId));
+        return expiresAtMs != null ? expiresAtMs : 0;
+    }
+
+    /**
+     * Запоминает активный код операции до момента его истечения.
+     */
+    public void put(Long userId, String operationId, long expiresAtMs) {
+        cache.put(key(userId, operationId), expiresAtMs, expiresAtMs);
+    }
+
+    /**
+     * Забывает код операции: он погашен или просрочен, следующая генерация выдаст новый.
+     */
+    public void invalidate(Long userId, String operationId) {
+        if (cache.remove(key(userId, operationId))) {
+            invalidated.increment();
+        }
+    }
+
+    /**
+     * @return снимок счётчиков кеша и число сброшенных записей
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = cache.metrics();
+        m.put("invalidated", invalidated.sum());
+        return m;
+    }
+
+    // userId числовой, поэтому разделитель однозначен
+    private static String key(Long userId, String operationId) {
+        return userId + ":" + operationId;
+    }
+}
@@ -1,27 +1,131 @@
 package otp.service;
 
+import otp.dao.OtpCodeDao;
+import otp.dao.OtpConfigDao;
+import otp.model.OtpCode;
+import otp.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Планировщик, который по расписанию помечает просроченные OTP-коды как EXPIRED.
+ * Планировщик, который помечает просроченные OTP-коды как EXPIRED.
+ * <p>
+ * Каждый сгенерированный код регистрируется через schedule() в иерархическом колесе
+ * таймеров (TimingWheel) на момент createdAt + TTL. Поток колеса раз в tickMs забирает
+ * новые коды, продвигает колесо и копит наступившие сроки, а затем передаёт их в
+ * OtpCodeDao.expireCodes() пачками до flushBatchSize не реже раза в flushIntervalMs.
+ * Если TTL за это время увеличили, код перепланируется на новый срок.
+ * </p>
+ * <p>
+ * Дополнительно по расписанию выполняется страховочная уборка кодов, не попавших
+ * в колесо (созданных до перезапуска или другим экземпляром). Каждый её прогон
+ * обрабатывает коды порциями (UPDATE ... LIMIT с FOR UPDATE SKIP LOCKED),
+ * так что ни один запрос не держит блокировки на всю таблицу. Размер порции подстраивается
+ * под наблюдаемую задержку БД: если порция выполнялась дольше targetBatchMs, размер
+ * уменьшается вдвое, иначе растёт до maxBatchSize. Между порциями делается пауза,
+ * равная времени выполнения предыдущей, чтобы уборка занимала не больше половины времени БД.
+ * Прогон ограничен maxRunMs.
+ * </p>
  */
 public class OtpExpirationScheduler {
     private static final Logger logger = LoggerFactory.getLogger(OtpExpirationScheduler.class);
 
-    private final OtpService otpService;
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final OtpCodeDao otpCodeDao;
+    private final OtpConfigDao otpConfigDao;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-expiry-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
 
-    /** Интервал в минутах между запусками */
-    private final long intervalMinutes;
+    /** Интервал в миллисекундах между запусками */
+    private final long intervalMs;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetBatchNanos;
+    private final long maxRunNanos;
 
-    public OtpExpirationScheduler(OtpService otpService, long intervalMinutes) {
-        this.otpService = otpService;
-        this.intervalMinutes = intervalMinutes;
+    /** Текущий размер порции; меняется только потоком планировщика */
+    private volatile int batchSize;
+
+    private final long tickMs;
+    private final int flushBatchSize;
+    private final long flushIntervalMs;
+    /** Новые коды от потоков запросов; в колесо их переносит только поток колеса */
+    private final Queue<OtpCode> incoming = new ConcurrentLinkedQueue<>();
+    private final TimingWheel<OtpCode> wheel;
+    private final List<OtpCode> due = new ArrayList<>();
+    private long lastFlushMs = System.currentTimeMillis();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-expiry-wheel");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile int wheelSize;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder rescheduled = new LongAdder();
+    private final LongAdder wheelExpired = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder expiredTotal = new LongAdder();
+    private final LongAdder batchNanosTotal = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile long lastRunExpired;
+    private volatile long lastRunMs;
+
+    /**
+     * @param intervalMs      период страховочной уборки
+     * @param minBatchSize    минимальный размер порции уборки
+     * @param maxBatchSize    максимальный размер порции уборки
+     * @param targetBatchMs   целевая длительность порции уборки
+     * @param maxRunMs        предел длительности прогона уборки
+     * @param tickMs          шаг колеса таймеров (точность срока истечения)
+     * @param wheelSlots      число ячеек на уровне колеса
+     * @param wheelLevels     число уровней колеса
+     * @param flushBatchSize  максимальный размер пачки истёкших кодов для DAO
+     * @param flushIntervalMs как долго копить истёкшие коды перед записью
+     */
+    public OtpExpirationScheduler(OtpCodeDao otpCodeDao, OtpConfigDao otpConfigDao, long intervalMs,
+                                  int minBatchSize, int maxBatchSize, long targetBatchMs, long maxRunMs,
+                                  long tickMs, int wheelSlots, int wheelLevels,
+                                  int flushBatchSize, long flushIntervalMs) {
+        this.otpCodeDao = otpCodeDao;
+        this.otpConfigDao = otpConfigDao;
+        this.intervalMs = intervalMs;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(targetBatchMs);
+        this.maxRunNanos = TimeUnit.MILLISECONDS.toNanos(maxRunMs);
+        this.batchSize = maxBatchSize;
+        this.tickMs = tickMs;
+        this.flushBatchSize = flushBatchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.wheel = new TimingWheel<>(tickMs, wheelSlots, wheelLevels, System.currentTimeMillis());
+    }
+
+    /**
+     * Регистрирует код для истечения в момент createdAt + TTL.
+     * Вызывается из потоков запросов; стоимость — одна вставка в очередь без блокировок.
+     */
+    public void schedule(OtpCode code) {
+        incoming.offer(code);
+        scheduled.increment();
     }
 
     /**
@@ -29,31 +133,135 @@ public class OtpExpirationScheduler {
      * По расписанию будет вызываться метод run().
      */
     public void start() {
-        logger.info("Starting OTP-expiration scheduler, interval={} min", intervalMinutes);
-        scheduler.scheduleAtFixedRate(
-                this::run,           // явно вызываем наш метод run()
-                intervalMinutes,     // initial delay
-                intervalMinutes,     // period
-                TimeUnit.MINUTES
-        );
+        logger.info("Starting OTP-expiration scheduler, interval={} ms, batch={}..{}",
+                intervalMs, minBatchSize, maxBatchSize);
+        scheduler.scheduleWithFixedDelay(this::run, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Однократный прогон: помечает все просроченные OTP как EXPIRED.
+     * Один тик колеса: переносит новые коды в колесо, собирает наступившие сроки
+     * и при необходимости сбрасывает их в DAO.
+     */
+    void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            long ttlMs = TimeUnit.SECONDS.toMillis(otpConfigDao.getConfig().getTtlSeconds());
+            OtpCode code;
+            while ((code = incoming.poll()) != null) {
+                if (!wheel.add(deadline(code, ttlMs), code)) {
+                    due.add(code);
+                }
+            }
+            wheel.advanceTo(now, expired -> {
+                long deadline = deadline(expired, ttlMs);
+                // TTL увеличили после генерации — код ещё действителен
+                if (deadline > now && wheel.add(deadline, expired)) {
+                    rescheduled.increment();
+                } else {
+                    due.add(expired);
+                }
+            });
+            wheelSize = wheel.size();
+            if (due.size() >= flushBatchSize || (!due.isEmpty() && now - lastFlushMs >= flushIntervalMs)) {
+                flush();
+                lastFlushMs = now;
+            }
+        } catch (Exception e) {
+            errors.increment();
+            logger.error("Error in OTP expiry wheel tick", e);
+        }
+    }
+
+    private void flush() {
+        for (int from = 0; from < due.size(); from += flushBatchSize) {
+            List<OtpCode> chunk = due.subList(from, Math.min(due.size(), from + flushBatchSize));
+            wheelExpired.add(otpCodeDao.expireCodes(chunk));
+            flushes.increment();
+        }
+        due.clear();
+    }
+
+    private static long deadline(OtpCode code, long ttlMs) {
+        return code.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() + ttlMs;
+    }
+
+    /**
+     * Однократный прогон: порциями помечает просроченные OTP как EXPIRED,
+     * пока они не закончатся или не истечёт maxRunMs.
      */
     public void run() {
+        long started = System.nanoTime();
+        long expired = 0;
         try {
-            otpService.markExpiredOtps();
-            logger.debug("OtpExpirationScheduler run(): expired codes processed");
+            Duration ttl = Duration.ofSeconds(otpConfigDao.getConfig().getTtlSeconds());
+            while (!Thread.currentThread().isInterrupted()) {
+                int limit = batchSize;
+                long batchStarted = System.nanoTime();
+                int affected = otpCodeDao.expireBatch(ttl, limit);
+                long elapsed = System.nanoTime() - batchStarted;
+
+                batches.increment();
+                batchNanosTotal.add(elapsed);
+                expired += affected;
+                adjustBatchSize(elapsed);
+
+                if (affected < limit || System.nanoTime() - started >= maxRunNanos) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(elapsed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
+            errors.increment();
             logger.error("Error in OTP-expiration task", e);
+        } finally {
+            runs.increment();
+            expiredTotal.add(expired);
+            lastRunExpired = expired;
+            lastRunMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+        if (expired > 0) {
+            logger.info("OtpExpirationScheduler run(): {} codes expired in {} ms", expired, lastRunMs);
         }
     }
 
+    // AIMD по задержке: медленная порция — вдвое меньше, быстрая — на четверть больше
+    private void adjustBatchSize(long elapsedNanos) {
+        if (elapsedNanos > targetBatchNanos) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        } else if (batchSize < maxBatchSize) {
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 4));
+        }
+    }
+
+    /**
+     * @return снимок счётчиков уборки
+     */
+    public Map<String, Object> metrics() {
+        long b = batches.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("wheelPending", wheelSize + incoming.size());
+        m.put("scheduled", scheduled.sum());
+        m.put("rescheduled", rescheduled.sum());
+        m.put("wheelExpired", wheelExpired.sum());
+        m.put("flushes", flushes.sum());
+        m.put("runs", runs.sum());
+        m.put("batches", b);
+        m.put("batchSize", batchSize);
+        m.put("expiredTotal", expiredTotal.sum());
+        m.put("lastRunExpired", lastRunExpired);
+        m.put("lastRunMs", lastRunMs);
+        m.put("avgBatchMs", b == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(batchNanosTotal.sum() / b));
+        m.put("errors", errors.sum());
+        return m;
+    }
+
     /** Останавливает планировщик */
     public void stop() {
         logger.info("Stopping OTP-expiration scheduler");
         scheduler.shutdownNow();
+        ticker.shutdownNow();
     }
 }
-
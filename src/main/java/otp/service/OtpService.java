@@ -1,68 +1,74 @@
 package otp.service;
 
+import otp.dao.DuplicateActiveOtpException;
 import otp.dao.OtpCodeDao;
 import otp.dao.OtpConfigDao;
 import otp.dao.UserDao;
+import otp.model.OtpBatchResult;
 import otp.model.OtpCode;
 import otp.model.OtpConfig;
+import otp.model.OtpGenerationResult;
 import otp.model.OtpStatus;
+import otp.model.OtpValidationResult;
 import otp.model.User;
+import otp.service.notification.ChannelUnavailableException;
 import otp.service.notification.NotificationChannel;
-import otp.service.notification.NotificationService;
-import otp.service.notification.NotificationServiceFactory;
+import otp.service.notification.NotificationDispatcher;
+import otp.service.notification.NotificationQueueFullException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class OtpService {
     private static final Logger logger = LoggerFactory.getLogger(OtpService.class);
     private static final SecureRandom random = new SecureRandom();
+    private static final String QUEUE_FULL = "Notification queue is full, retry later";
 
     private final OtpCodeDao otpCodeDao;
     private final OtpConfigDao otpConfigDao;
     private final UserDao userDao;
-    private final NotificationServiceFactory notificationFactory;
+    private final NotificationDispatcher notificationDispatcher;
+    private final OtpExpirationScheduler expirationScheduler;
+    private final OtpDedupeCache dedupeCache;
 
     public OtpService(OtpCodeDao otpCodeDao,
                       OtpConfigDao otpConfigDao,
                       UserDao userDao,
-                      NotificationServiceFactory notificationFactory) {
+                      NotificationDispatcher notificationDispatcher,
+                      OtpExpirationScheduler expirationScheduler,
+                      OtpDedupeCache dedupeCache) {
         this.otpCodeDao = otpCodeDao;
         this.otpConfigDao = otpConfigDao;
         this.userDao = userDao;
-        this.notificationFactory = notificationFactory;
+        this.notificationDispatcher = notificationDispatcher;
+        this.expirationScheduler = expirationScheduler;
+        this.dedupeCache = dedupeCache;
     }
 
-    /**
-     * Генерирует новый OTP-код, сохраняет его в БД и возвращает строку.
-     */
-    public String generateOtp(Long userId, String operationId) {
-        OtpConfig config = otpConfigDao.getConfig();
-        int length = config.getLength();
+    // Новый ACTIVE-код со случайным значением
+    private static OtpCode newOtp(Long userId, String operationId, int length) {
+        return new OtpCode(null, userId, operationId, newCode(length), OtpStatus.ACTIVE, LocalDateTime.now());
+    }
 
-        // Генерация случайного цифрового кода нужной длины
+    // Генерация случайного цифрового кода нужной длины
+    private static String newCode(int length) {
         StringBuilder sb = new StringBuilder(length);
         for (int i = 0; i < length; i++) {
             sb.append(random.nextInt(10));
         }
-        String code = sb.toString();
-
-        // Сохраняем в БД
-        OtpCode otp = new OtpCode(
-                null,
-                userId,
-                operationId,
-                code,
-                OtpStatus.ACTIVE,
-                LocalDateTime.now()
-        );
-        otpCodeDao.save(otp);
-        logger.info("Generated OTP {} for userId={}, operationId={}", code, userId, operationId);
-        return code;
+        return sb.toString();
     }
 
     /**
@@ -73,60 +79,317 @@ public class OtpService {
     }
 
     /**
-     * Сгенерировать и отправить код указанным каналом.
+     * Сгенерировать код и поставить его отправку в очередь указанного канала.
+     * Метод возвращается сразу после сохранения кода; сама отправка
+     * выполняется рабочими потоками NotificationDispatcher.
+     * <p>
+     * Генерация идемпотентна по (userId, operationId): пока код операции активен и не истёк,
+     * повторный запрос не вставляет и не отправляет новый код, а сообщает срок действующего.
+     * Сначала проверяется кеш этого экземпляра (OtpDedupeCache), затем — вставка в БД, которая
+     * под блокировкой операции проверяет активные коды во всех секциях: отказ вставки
+     * означает, что код уже выдан. Код без operationId
+     * генерируется всегда.
+     * </p>
+     *
+     * @return created — выдан новый код; иначе возвращён срок уже активного кода
+     * @throws IllegalArgumentException если пользователь не найден
+     * @throws ChannelUnavailableException если канал недоступен
+     * @throws otp.service.notification.NotificationQueueFullException если очередь канала заполнена
      */
-    public void sendOtpToUser(Long userId, String operationId, NotificationChannel channel) {
-        String code = generateOtp(userId, operationId);
+    public OtpGenerationResult sendOtpToUser(Long userId, String operationId, NotificationChannel channel) {
+        if (operationId != null) {
+            long expiresAtMs = dedupeCache.expiresAt(userId, operationId);
+            if (expiresAtMs > 0) {
+                logger.info("sendOtpToUser: active OTP already issued for userId={}, operationId={}",
+                        userId, operationId);
+                return new OtpGenerationResult(false, secondsLeft(expiresAtMs - System.currentTimeMillis()));
+            }
+        }
         User user = userDao.findById(userId);
         if (user == null) {
             logger.error("sendOtpToUser: user not found, id={}", userId);
             throw new IllegalArgumentException("User not found");
         }
+        // Отказываем до вставки кода, если канал недоступен или не успевает отправлять
+        notificationDispatcher.ensureAvailable(channel);
+        OtpConfig config = otpConfigDao.getConfig();
+        Duration ttl = Duration.ofSeconds(config.getTtlSeconds());
+        OtpCode otp = newOtp(userId, operationId, config.getLength());
+        OtpCode saved = saveOrFindActive(otp, ttl);
+        long leftMs = Duration.between(LocalDateTime.now(), saved.getCreatedAt().plus(ttl)).toMillis();
+        if (saved != otp) {
+            logger.info("sendOtpToUser: active OTP already issued for userId={}, operationId={}",
+                    userId, operationId);
+            if (operationId != null) {
+                dedupeCache.put(userId, operationId, System.currentTimeMillis() + leftMs);
+            }
+            return new OtpGenerationResult(false, secondsLeft(leftMs));
+        }
+        expirationScheduler.schedule(otp);
+        logger.info("Generated OTP {} for userId={}, operationId={}", otp.getCode(), userId, operationId);
 
         // Для простоты используем username как адресат (email, sms, chatId)
         String recipient = user.getUsername();
-        NotificationService svc = notificationFactory.getService(channel);
-        svc.sendCode(recipient, code);
-        logger.info("Sent OTP code for userId={} via {}", userId, channel);
+        try {
+            notificationDispatcher.dispatch(channel, recipient, otp.getCode());
+        } catch (NotificationQueueFullException e) {
+            // Очередь заполнилась после ensureAvailable: код не будет отправлен, гасим его
+            otpCodeDao.expireCodes(List.of(otp));
+            throw e;
+        }
+        // В кеш — только код, принятый в очередь: иначе повтор после 503 получил бы ACTIVE
+        // для кода, который никогда не будет отправлен
+        if (operationId != null) {
+            dedupeCache.put(userId, operationId, System.currentTimeMillis() + leftMs);
+        }
+        logger.info("Queued OTP code for userId={} via {}", userId, channel);
+        return new OtpGenerationResult(true, secondsLeft(leftMs));
     }
 
     /**
-     * Проверяет введённый код: активность и срок жизни, и переключает статус на USED.
+     * Сохраняет код; если у операции уже есть активный код, возвращает его вместо нового.
+     * Активный по статусу, но уже просроченный код (ещё не помеченный уборкой) помечается
+     * EXPIRED, и вставка повторяется один раз.
+     *
+     * @return сохранённый otp или существующий активный код операции
      */
-    public boolean validateOtp(String inputCode) {
-        OtpCode otp = otpCodeDao.findByCode(inputCode);
-        if (otp == null) {
-            logger.warn("validateOtp: code not found {}", inputCode);
-            return false;
-        }
-        // Проверка статуса
-        if (otp.getStatus() != OtpStatus.ACTIVE) {
-            logger.warn("validateOtp: code {} is not active (status={})", inputCode, otp.getStatus());
-            return false;
-        }
-        // Проверка истечения по времени
-        OtpConfig config = otpConfigDao.getConfig();
-        LocalDateTime expiry = otp.getCreatedAt().plusSeconds(config.getTtlSeconds());
-        if (LocalDateTime.now().isAfter(expiry)) {
-            otpCodeDao.markAsExpiredOlderThan(Duration.ofSeconds(config.getTtlSeconds()));
-            logger.warn("validateOtp: code {} expired at {}", inputCode, expiry);
-            return false;
+    private OtpCode saveOrFindActive(OtpCode otp, Duration ttl) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                otpCodeDao.save(otp);
+                return otp;
+            } catch (DuplicateActiveOtpException e) {
+                OtpCode existing = otpCodeDao.findActiveByOperation(otp.getUserId(), otp.getOperationId());
+                if (existing != null && existing.getCreatedAt().plus(ttl).isAfter(LocalDateTime.now())) {
+                    return existing;
+                }
+                if (attempt > 0) {
+                    throw e;
+                }
+                if (existing != null) {
+                    otpCodeDao.expireCodes(List.of(existing));
+                }
+            }
         }
+    }
 
-        // Всё ок — помечаем как USED
-        otpCodeDao.markAsUsed(otp.getId());
-        logger.info("validateOtp: code {} validated and marked USED", inputCode);
-        return true;
+    // Оставшийся срок в секундах с округлением вверх
+    private static long secondsLeft(long millis) {
+        return Math.max(0, (millis + 999) / 1000);
     }
 
     /**
-     * Меняет статус всех просроченных кодов на EXPIRED.
+     * Пакетный вариант sendOtpToUser: пользователи ищутся одним запросом, коды вставляются
+     * одной пачкой, а уведомления передаются в каналы группами — по одной группе на канал.
+     * Ошибка элемента (нет пользователя, канал недоступен или переполнен) не прерывает
+     * обработку остальных и возвращается в его результате. Элемент, для операции которого
+     * уже есть активный код (в том числе выданный этим же пакетом), получает ACTIVE,
+     * и новый код для него не создаётся.
+     *
+     * @param requests элементы пакета
+     * @return результаты в порядке элементов: QUEUED, ACTIVE или FAILED с причиной
      */
-    public void markExpiredOtps() {
+    public List<OtpBatchResult> sendOtpBatch(List<OtpRequest> requests) {
+        int n = requests.size();
+        OtpBatchResult[] results = new OtpBatchResult[n];
+
+        Set<Long> userIds = new HashSet<>();
+        for (OtpRequest r : requests) {
+            if (r.userId != null) {
+                userIds.add(r.userId);
+            }
+        }
+        Map<Long, User> users = new HashMap<>();
+        for (User u : userDao.findByIds(userIds)) {
+            users.put(u.getId(), u);
+        }
+
+        Map<NotificationChannel, List<Integer>> byChannel = new EnumMap<>(NotificationChannel.class);
+        for (int i = 0; i < n; i++) {
+            OtpRequest r = requests.get(i);
+            if (r.channel == null) {
+                results[i] = failed(r, "Unknown channel");
+            } else if (r.userId == null || !users.containsKey(r.userId)) {
+                results[i] = failed(r, "User not found");
+            } else {
+                byChannel.computeIfAbsent(r.channel, c -> new ArrayList<>()).add(i);
+            }
+        }
+        // Отказываем до вставки кодов, если канал недоступен или не успевает отправлять
+        for (Iterator<Map.Entry<NotificationChannel, List<Integer>>> it = byChannel.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<NotificationChannel, List<Integer>> group = it.next();
+            String error = null;
+            try {
+                notificationDispatcher.ensureAvailable(group.getKey());
+            } catch (NotificationQueueFullException e) {
+                error = QUEUE_FULL;
+            } catch (ChannelUnavailableException e) {
+                error = e.getMessage();
+            }
+            if (error != null) {
+                for (int i : group.getValue()) {
+                    results[i] = failed(requests.get(i), error);
+                }
+                it.remove();
+            }
+        }
+
         OtpConfig config = otpConfigDao.getConfig();
         Duration ttl = Duration.ofSeconds(config.getTtlSeconds());
-        otpCodeDao.markAsExpiredOlderThan(ttl);
-        logger.info("markExpiredOtps: expired codes older than {} seconds", config.getTtlSeconds());
+        OtpCode[] codes = new OtpCode[n];
+        List<OtpCode> batch = new ArrayList<>(n);
+        Map<String, Integer> firstOfOperation = new HashMap<>();
+        int[] repeatOf = new int[n];
+        Arrays.fill(repeatOf, -1);
+        for (List<Integer> group : byChannel.values()) {
+            for (Iterator<Integer> it = group.iterator(); it.hasNext(); ) {
+                int i = it.next();
+                OtpRequest r = requests.get(i);
+                if (r.operationId != null) {
+                    Integer first = firstOfOperation.putIfAbsent(r.userId + ":" + r.operationId, i);
+                    if (first != null || dedupeCache.expiresAt(r.userId, r.operationId) > 0) {
+                        results[i] = new OtpBatchResult(r.userId, r.operationId, OtpStatus.ACTIVE.name(), null);
+                        repeatOf[i] = first != null ? first : -1;
+                        it.remove();
+                        continue;
+                    }
+                }
+                codes[i] = newOtp(r.userId, r.operationId, config.getLength());
+                batch.add(codes[i]);
+            }
+        }
+        try {
+            otpCodeDao.saveAll(batch);
+        } catch (DuplicateActiveOtpException e) {
+            // Часть операций уже имеет активные коды, выданные вне пакета: несохранённые — по одному
+            for (List<Integer> group : byChannel.values()) {
+                for (Iterator<Integer> it = group.iterator(); it.hasNext(); ) {
+                    int i = it.next();
+                    if (codes[i].getId() == null && saveOrFindActive(codes[i], ttl) != codes[i]) {
+                        OtpRequest r = requests.get(i);
+                        results[i] = new OtpBatchResult(r.userId, r.operationId, OtpStatus.ACTIVE.name(), null);
+                        it.remove();
+                    }
+                }
+            }
+            batch.removeIf(c -> c.getId() == null);
+        }
+        batch.forEach(expirationScheduler::schedule);
+
+        List<OtpCode> sent = new ArrayList<>(batch.size());
+        List<OtpCode> unsent = new ArrayList<>();
+        for (Map.Entry<NotificationChannel, List<Integer>> group : byChannel.entrySet()) {
+            List<Integer> indexes = group.getValue();
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            List<NotificationDispatcher.Notification> notifications = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                // Для простоты используем username как адресат (email, sms, chatId)
+                String recipient = users.get(requests.get(i).userId).getUsername();
+                notifications.add(new NotificationDispatcher.Notification(recipient, codes[i].getCode()));
+            }
+            int queued = notificationDispatcher.dispatchAll(group.getKey(), notifications);
+            for (int k = 0; k < indexes.size(); k++) {
+                int i = indexes.get(k);
+                OtpRequest r = requests.get(i);
+                if (k < queued) {
+                    results[i] = new OtpBatchResult(r.userId, r.operationId, "QUEUED", null);
+                    sent.add(codes[i]);
+                } else {
+                    results[i] = failed(r, QUEUE_FULL);
+                    unsent.add(codes[i]);
+                }
+            }
+        }
+        // Коды, не принятые в очередь, не будут отправлены — гасим их, чтобы не оставлять активными
+        if (!unsent.isEmpty()) {
+            otpCodeDao.expireCodes(unsent);
+        }
+        // Повтор операции внутри пакета разделяет исход первого элемента: его код не отправлен — повтор тоже FAILED
+        for (int i = 0; i < n; i++) {
+            if (repeatOf[i] >= 0 && "FAILED".equals(results[repeatOf[i]].getStatus())) {
+                results[i] = failed(requests.get(i), results[repeatOf[i]].getError());
+            }
+        }
+        long expiresAtMs = System.currentTimeMillis() + ttl.toMillis();
+        for (OtpCode c : sent) {
+            if (c.getOperationId() != null) {
+                dedupeCache.put(c.getUserId(), c.getOperationId(), expiresAtMs);
+            }
+        }
+        logger.info("sendOtpBatch: {} of {} OTP codes generated and queued", sent.size(), n);
+        return Arrays.asList(results);
+    }
+
+    private static OtpBatchResult failed(OtpRequest r, String error) {
+        return new OtpBatchResult(r.userId, r.operationId, "FAILED", error);
+    }
+
+    /**
+     * Проверяет и гасит код пользователя для операции одним запросом к БД.
+     * Повторная или параллельная проверка того же кода вернёт USED.
+     *
+     * @param userId      владелец кода
+     * @param operationId операция, к которой привязан код (может быть null)
+     * @param inputCode   введённый код
+     * @return исход проверки; VALID — код принят и помечен USED
+     */
+    public OtpValidationResult validateOtp(Long userId, String operationId, String inputCode) {
+        Duration ttl = Duration.ofSeconds(otpConfigDao.getConfig().getTtlSeconds());
+        OtpValidationResult result = otpCodeDao.consume(userId, operationId, inputCode, ttl);
+        forgetIfConsumed(userId, operationId, result);
+        if (result == OtpValidationResult.VALID) {
+            logger.info("validateOtp: code validated and marked USED for userId={}, operationId={}",
+                    userId, operationId);
+        } else {
+            logger.warn("validateOtp: code rejected ({}) for userId={}, operationId={}",
+                    result, userId, operationId);
+        }
+        return result;
+    }
+
+    /**
+     * Пакетный вариант validateOtp: все коды гасятся одним запросом к БД.
+     *
+     * @param attempts попытки: userId, operationId (может быть null) и введённый code
+     * @return исходы в порядке попыток
+     */
+    public List<OtpValidationResult> validateOtpBatch(List<OtpCode> attempts) {
+        Duration ttl = Duration.ofSeconds(otpConfigDao.getConfig().getTtlSeconds());
+        List<OtpValidationResult> results = otpCodeDao.consumeAll(attempts, ttl);
+        for (int i = 0; i < results.size(); i++) {
+            forgetIfConsumed(attempts.get(i).getUserId(), attempts.get(i).getOperationId(), results.get(i));
+        }
+        long valid = results.stream().filter(r -> r == OtpValidationResult.VALID).count();
+        logger.info("validateOtpBatch: {} of {} codes validated and marked USED", valid, attempts.size());
+        return results;
+    }
+
+    // Найденный код погашен или просрочен — следующая генерация для операции должна выдать новый
+    private void forgetIfConsumed(Long userId, String operationId, OtpValidationResult result) {
+        if (operationId != null && result != OtpValidationResult.NOT_FOUND) {
+            dedupeCache.invalidate(userId, operationId);
+        }
     }
-}
 
+    /**
+     * Элемент пакетной генерации: кому, для какой операции и каким каналом отправить код.
+     */
+    public static final class OtpRequest {
+        final Long userId;
+        final String operationId;
+        final NotificationChannel channel;
+
+        /**
+         * @param userId      получатель кода
+         * @param operationId операция (может быть null)
+         * @param channel     канал отправки; null — канал не распознан
+         */
+        public OtpRequest(Long userId, String operationId, NotificationChannel channel) {
+            this.userId = userId;
+            this.operationId = operationId;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package otp.service;
+
+import otp.util.PasswordEncoder;
+import otp.util.PasswordHasher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Хеширование и проверка паролей на выделенном пуле потоков.
+ * <p>
+ * Стойкий KDF намеренно дорог по CPU, поэтому вычисления вынесены из потоков запросов
+ * в фиксированный пул (auth.password.threads) с ограниченной очередью
+ * (auth.password.queueCapacity). Всплеск логинов упирается в этот пул и получает отказ
+ * (RejectedExecutionException), а не отнимает процессор у генерации и проверки OTP.
+ * </p>
+ * <p>
+ * Хеши старого формата (несолёный SHA-256) проверяются через PasswordEncoder; при успешной
+ * проверке в той же задаче пула считается новый хеш, и вызывающий сохраняет его вместо
+ * старого. Так же пересчитываются хеши с числом итераций ниже текущего.
+ * </p>
+ */
+public class PasswordService {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordService.class);
+
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor pool;
+    /** Хеш случайного пароля: проверка по нему стоит столько же, сколько настоящая */
+    private final String dummyHash;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder rehashes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder queueNanosTotal = new LongAdder();
+    private final LongAdder computeNanosTotal = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong maxComputeNanos = new AtomicLong();
+
+    /**
+     * @param hasher        алгоритм для новых хешей
+     * @param threads       число потоков пула
+     * @param queueCapacity максимальное число ожидающих задач
+     */
+    public PasswordService(PasswordHasher hasher, int threads, int queueCapacity) {
+        this.hasher = hasher;
+        this.dummyHash = hasher.hash(UUID.randomUUID().toString());
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Хеширует пароль текущим алгоритмом.
+     *
+     * @throws RejectedExecutionException если очередь пула заполнена
+     */
+    public String hash(String rawPassword) {
+        hashes.increment();
+        return execute(() -> hasher.hash(rawPassword));
+    }
+
+    /**
+     * Проверяет пароль по сохранённому хешу.
+     *
+     * @return результат проверки; upgradedHash не null, если хеш следует заменить
+     * @throws RejectedExecutionException если очередь пула заполнена
+     */
+    public Verification verify(String rawPassword, String storedHash) {
+        verifications.increment();
+        return execute(() -> {
+            boolean current = hasher.supports(storedHash);
+            boolean matched = current
+                    ? hasher.matches(rawPassword, storedHash)
+                    : PasswordEncoder.matches(rawPassword, storedHash);
+            if (!matched) {
+                return new Verification(false, null);
+            }
+            if (!current || hasher.needsRehash(storedHash)) {
+                rehashes.increment();
+                return new Verification(true, hasher.hash(rawPassword));
+            }
+            return new Verification(true, null);
+        });
+    }
+
+    /**
+     * Проверяет пароль по хешу случайного пароля, результат отбрасывается.
+     * Используется для неизвестного логина, чтобы ответ занимал столько же времени,
+     * сколько проверка пароля существующего пользователя, и не выдавал наличие логина.
+     *
+     * @throws RejectedExecutionException если очередь пула заполнена
+     */
+    public void verifyDummy(String rawPassword) {
+        verify(rawPassword, dummyHash);
+    }
+
+    /**
+     * @return снимок счётчиков: очередь, отказы, задержки в очереди и время вычисления
+     */
+    public Map<String, Object> metrics() {
+        long n = tasks.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("threads", pool.getMaximumPoolSize());
+        m.put("active", pool.getActiveCount());
+        m.put("queueDepth", pool.getQueue().size());
+        m.put("queueCapacity", pool.getQueue().size() + pool.getQueue().remainingCapacity());
+        m.put("hashes", hashes.sum());
+        m.put("verifications", verifications.sum());
+        m.put("rehashes", rehashes.sum());
+        m.put("rejected", rejected.sum());
+        m.put("avgQueueWaitMs", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(queueNanosTotal.sum() / n));
+        m.put("maxQueueWaitMs", TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get()));
+        m.put("avgComputeMs", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(computeNanosTotal.sum() / n));
+        m.put("maxComputeMs", TimeUnit.NANOSECONDS.toMillis(maxComputeNanos.get()));
+        return m;
+    }
+
+    /**
+     * Останавливает пул, дождавшись уже принятых задач.
+     */
+    public void close() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Выполняет задачу в пуле и ждёт результата, учитывая ожидание в очереди и время работы
+    private <T> T execute(Callable<T> task) {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = pool.submit(() -> {
+                long started = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    long finished = System.nanoTime();
+                    tasks.increment();
+                    queueNanosTotal.add(started - submitted);
+                    computeNanosTotal.add(finished - started);
+                    maxQueueNanos.accumulateAndGet(started - submitted, Math::max);
+                    maxComputeNanos.accumulateAndGet(finished - started, Math::max);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            logger.warn("Password hashing queue is full, request rejected");
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Password hashing failed", cause);
+        }
+    }
+
+    /**
+     * Результат проверки пароля.
+     */
+    public static final class Verification {
+        private final boolean matched;
+        private final String upgradedHash;
+
+        Verification(boolean matched, String upgradedHash) {
+            this.matched = matched;
+            this.upgradedHash = upgradedHash;
+        }
+
+        /** @return true, если пароль совпал */
+        public boolean isMatched() {
+            return matched;
+        }
+
+        /** @return новый хеш для замены сохранённого или null */
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+}
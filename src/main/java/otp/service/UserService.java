@@ -3,8 +3,7 @@ package otp.service;
 import otp.dao.UserDao;
 import otp.model.User;
 import otp.model.UserRole;
-import otp.util.PasswordEncoder;
-import otp.util.TokenManager;
+import otp.util.AuthMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,9 +12,17 @@ import java.util.List;
 public class UserService {
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     private final UserDao userDao;
+    private final AuthMode authMode;
+    private final PasswordService passwordService;
 
-    public UserService(UserDao userDao) {
+    /**
+     * @param authMode        способ выдачи токенов при логине
+     * @param passwordService хеширование и проверка паролей на выделенном пуле
+     */
+    public UserService(UserDao userDao, AuthMode authMode, PasswordService passwordService) {
         this.userDao = userDao;
+        this.authMode = authMode;
+        this.passwordService = passwordService;
     }
 
     /**
@@ -32,7 +39,7 @@ public class UserService {
             throw new IllegalStateException("Administrator already exists");
         }
 
-        String hashed = PasswordEncoder.hash(password);
+        String hashed = passwordService.hash(password);
         User user = new User(null, username, hashed, role);
         userDao.create(user);
         logger.info("Registered new user: {} with role {}", username, role);
@@ -49,20 +56,32 @@ public class UserService {
 
     /**
      * Аутентифицирует пользователя и возвращает токен.
+     * Хеш старого формата или с устаревшими параметрами заменяется новым.
      * @throws IllegalArgumentException если пользователь не найден или пароль неверен.
      */
     public String login(String username, String password) {
         User user = userDao.findByUsername(username);
         if (user == null) {
+            // Та же стоимость KDF, что и для существующего логина: время ответа не выдаёт наличие пользователя
+            passwordService.verifyDummy(password);
             logger.warn("Login failed: user not found {}", username);
             throw new IllegalArgumentException("Invalid username or password");
         }
-        if (!PasswordEncoder.matches(password, user.getPasswordHash())) {
+        PasswordService.Verification verification = passwordService.verify(password, user.getPasswordHash());
+        if (!verification.isMatched()) {
             logger.warn("Login failed: wrong password for {}", username);
             throw new IllegalArgumentException("Invalid username or password");
         }
-        String token = TokenManager.generateToken(user);
-        logger.info("User {} logged in, token generated", username);
+        if (verification.getUpgradedHash() != null) {
+            try {
+                userDao.updatePasswordHash(user.getId(), verification.getUpgradedHash());
+                logger.info("Password hash of user {} upgraded", username);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to upgrade password hash of user {}: {}", username, e.getMessage());
+            }
+        }
+        String token = authMode.issue(user);
+        logger.info("User {} logged in, {} token generated", username, authMode);
         return token;
     }
 
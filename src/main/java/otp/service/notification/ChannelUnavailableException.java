@@ -0,0 +1,23 @@
+package otp.service.notification;
+
+/**
+ * Исключение, сигнализирующее, что канал уведомлений недоступен
+ * (реализацию канала не удалось инициализировать при старте).
+ */
+public class ChannelUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final NotificationChannel channel;
+
+    public ChannelUnavailableException(NotificationChannel channel) {
+        super("Notification channel " + channel + " is unavailable");
+        this.channel = channel;
+    }
+
+    /**
+     * @return недоступный канал
+     */
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+}
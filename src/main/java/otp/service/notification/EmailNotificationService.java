@@ -7,20 +7,43 @@ import javax.mail.*;
 import javax.mail.internet.*;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Реализация NotificationService для отправки OTP-кодов по Email.
  * Конфигурация берётся из файла email.properties в resources.
+ * <p>
+ * Письма отправляются через пул подключённых SMTP-транспортов (email.pool.*).
+ * В пакетном режиме (email.batch.enabled=true) sendCodeAsync() только ставит письмо
+ * в очередь, а потоки-отправители забирают из неё до email.batch.maxSize писем
+ * и отправляют их подряд по одному соединению.
+ * </p>
  */
 public class EmailNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(EmailNotificationService.class);
 
     private final Session session;
     private final String fromAddress;
+    private final SmtpTransportPool pool;
+
+    private final int warmUpConnections;
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final BlockingQueue<PendingEmail> batchQueue;
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean running = true;
 
     /**
-     * Конструктор загружает настройки почты и инициирует JavaMail Session.
+     * Конструктор загружает настройки почты, инициирует JavaMail Session
+     * и пул SMTP-соединений.
      */
     public EmailNotificationService() {
         Properties props = loadConfig();
@@ -34,6 +57,29 @@ public class EmailNotificationService implements NotificationService {
                 );
             }
         });
+        this.pool = new SmtpTransportPool(
+                session,
+                props.getProperty("email.username"),
+                props.getProperty("email.password"),
+                Integer.parseInt(props.getProperty("email.pool.size", "4")),
+                Long.parseLong(props.getProperty("email.pool.idleTimeoutMs", "60000")),
+                Integer.parseInt(props.getProperty("email.pool.maxMessagesPerConnection", "100")),
+                Long.parseLong(props.getProperty("email.pool.borrowTimeoutMs", "10000")));
+
+        this.warmUpConnections = Integer.parseInt(props.getProperty("email.pool.warmUp", "1"));
+        this.batchEnabled = Boolean.parseBoolean(props.getProperty("email.batch.enabled", "false"));
+        this.batchMaxSize = Integer.parseInt(props.getProperty("email.batch.maxSize", "50"));
+        this.batchQueue = new LinkedBlockingQueue<>(
+                Integer.parseInt(props.getProperty("email.batch.queueCapacity", "2000")));
+        if (batchEnabled) {
+            int senderCount = Integer.parseInt(props.getProperty("email.batch.senders", "2"));
+            for (int i = 0; i < senderCount; i++) {
+                Thread t = new Thread(this::drainLoop, "email-batch-" + (i + 1));
+                t.setDaemon(true);
+                t.start();
+                senders.add(t);
+            }
+        }
     }
 
     /**
@@ -64,18 +110,185 @@ public class EmailNotificationService implements NotificationService {
     @Override
     public void sendCode(String recipientEmail, String code) {
         try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(fromAddress));
-            message.setRecipient(Message.RecipientType.TO, new InternetAddress(recipientEmail));
-            message.setSubject("Your OTP Code");
-            message.setText("Your one-time confirmation code is: " + code);
-
-            Transport.send(message);
+            Message message = buildMessage(recipientEmail, code);
+            sendOverPool(List.of(message));
             logger.info("OTP code sent via Email to {}", recipientEmail);
-        } catch (MessagingException e) {
+        } catch (Exception e) {
             logger.error("Failed to send OTP email to {}", recipientEmail, e);
             throw new RuntimeException("Email sending failed", e);
         }
     }
-}
 
+    /**
+     * В пакетном режиме ставит письмо в очередь отправителей, иначе отправляет сразу.
+     */
+    @Override
+    public CompletableFuture<Void> sendCodeAsync(String recipientEmail, String code) {
+        if (!batchEnabled) {
+            return NotificationService.super.sendCodeAsync(recipientEmail, code);
+        }
+        PendingEmail pending = new PendingEmail(recipientEmail, code);
+        if (!batchQueue.offer(pending)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Email batch queue is full"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Открывает email.pool.warmUp соединений заранее.
+     */
+    @Override
+    public void warmUp() {
+        pool.warmUp(warmUpConnections);
+    }
+
+    /**
+     * @return снимок счётчиков пула SMTP-соединений и пакетной очереди
+     */
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = pool.metrics();
+        m.put("batchQueueDepth", batchQueue.size());
+        return m;
+    }
+
+    /**
+     * Останавливает отправителей и закрывает соединения.
+     */
+    @Override
+    public void close() {
+        running = false;
+        senders.forEach(Thread::interrupt);
+        PendingEmail p;
+        while ((p = batchQueue.poll()) != null) {
+            p.future.completeExceptionally(new IllegalStateException("Email service stopped"));
+        }
+        pool.close();
+    }
+
+    private Message buildMessage(String recipientEmail, String code) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(fromAddress));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(recipientEmail));
+        message.setSubject("Your OTP Code");
+        message.setText("Your one-time confirmation code is: " + code);
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * Отправляет письма подряд по одному соединению из пула.
+     * При обрыве соединения переподключается и повторяет текущее письмо один раз.
+     * Если и это не удалось, текущее и оставшиеся письма получают ту же ошибку,
+     * а уже отправленные остаются успешными.
+     *
+     * @return массив ошибок по письмам (null — письмо отправлено)
+     */
+    private Exception[] sendOverPool(List<Message> messages) throws Exception {
+        Exception[] errors = new Exception[messages.size()];
+        SmtpTransportPool.PooledTransport pt = pool.borrow();
+        boolean broken = false;
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                try {
+                    if (pt.exhausted()) {
+                        pool.reconnect(pt);
+                    }
+                    pt.transport().sendMessage(message, message.getAllRecipients());
+                } catch (SendFailedException e) {
+                    // Отклонён конкретный адрес — соединение остаётся рабочим
+                    errors[i] = e;
+                    continue;
+                } catch (MessagingException e) {
+                    try {
+                        pool.reconnect(pt);
+                        pt.transport().sendMessage(message, message.getAllRecipients());
+                    } catch (SendFailedException retryError) {
+                        errors[i] = retryError;
+                        continue;
+                    } catch (MessagingException retryError) {
+                        // Соединение не восстановить: отправленные письма остаются успешными
+                        broken = true;
+                        Arrays.fill(errors, i, errors.length, retryError);
+                        break;
+                    }
+                }
+                pt.messageSent();
+            }
+        } finally {
+            pool.release(pt, broken);
+        }
+        if (messages.size() == 1 && errors[0] != null) {
+            throw errors[0];
+        }
+        return errors;
+    }
+
+    // Цикл потока-отправителя: ждём первое письмо, добираем остальные без ожидания
+    private void drainLoop() {
+        List<PendingEmail> batch = new ArrayList<>(batchMaxSize);
+        while (running) {
+            try {
+                PendingEmail first = batchQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                batchQueue.drainTo(batch, batchMaxSize - 1);
+                sendBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<PendingEmail> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        List<PendingEmail> built = new ArrayList<>(batch.size());
+        for (PendingEmail p : batch) {
+            try {
+                messages.add(buildMessage(p.recipient, p.code));
+                built.add(p);
+            } catch (MessagingException e) {
+                p.future.completeExceptionally(e);
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            Exception[] errors = sendOverPool(messages);
+            for (int i = 0; i < built.size(); i++) {
+                PendingEmail p = built.get(i);
+                if (errors[i] == null) {
+                    p.future.complete(null);
+                } else {
+                    p.future.completeExceptionally(errors[i]);
+                }
+            }
+            logger.info("OTP batch of {} emails sent over one SMTP connection", built.size());
+        } catch (Exception e) {
+            logger.error("Failed to send OTP email batch of {}", built.size(), e);
+            built.forEach(p -> p.future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Письмо, ожидающее пакетной отправки.
+     */
+    private static final class PendingEmail {
+        final String recipient;
+        final String code;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingEmail(String recipient, String code) {
+            this.recipient = recipient;
+            this.code = code;
+        }
+    }
+}
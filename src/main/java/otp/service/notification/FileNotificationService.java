@@ -4,19 +4,58 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Реализация NotificationService для сохранения OTP-кодов в файл.
  * Путь к файлу передаётся в параметре recipient при вызове sendCode().
+ * <p>
+ * Записи передаются GroupCommitFileWriter: файлы остаются открытыми,
+ * записи от параллельных отправителей фиксируются пачками.
+ * Настройки писателя берутся из file.properties (если файла нет — значения по умолчанию).
+ * </p>
  */
 public class FileNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(FileNotificationService.class);
     // Формат временной метки
     private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    private final GroupCommitFileWriter writer;
+
+    public FileNotificationService() {
+        Properties props = loadConfig();
+        this.writer = new GroupCommitFileWriter(
+                Integer.parseInt(props.getProperty("file.writer.queueCapacity", "100000")),
+                Integer.parseInt(props.getProperty("file.writer.maxBatch", "4096")),
+                GroupCommitFileWriter.FsyncPolicy.valueOf(
+                        props.getProperty("file.writer.fsync", "INTERVAL").trim().toUpperCase()),
+                Long.parseLong(props.getProperty("file.writer.fsyncIntervalMs", "1000")),
+                Long.parseLong(props.getProperty("file.writer.rotateMaxBytes", "104857600")),
+                Long.parseLong(props.getProperty("file.writer.rotateIntervalMs", "0")),
+                Integer.parseInt(props.getProperty("file.writer.maxOpenFiles", "256")));
+    }
+
+    private Properties loadConfig() {
+        Properties props = new Properties();
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("file.properties")) {
+            if (is != null) {
+                props.load(is);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to load file.properties", e);
+            throw new RuntimeException("Could not load file channel configuration", e);
+        }
+        return props;
+    }
+
     /**
      * Сохраняет OTP-код в файл.
      *
@@ -25,22 +64,44 @@ public class FileNotificationService implements NotificationService {
      */
     @Override
     public void sendCode(String recipientPath, String code) {
-        Path path = Paths.get(recipientPath);
-        String entry = String.format("%s - OTP: %s%n",
-                LocalDateTime.now().format(TIMESTAMP_FORMAT),
-                code);
         try {
-            // Убедимся, что директория существует
-            if (path.getParent() != null) {
-                Files.createDirectories(path.getParent());
-            }
-            // Запишем код в файл (создаём, если нужно, и дописываем в конец)
-            Files.write(path, entry.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            logger.info("OTP code written to file {}", recipientPath);
-        } catch (IOException e) {
-            logger.error("Failed to write OTP to file {}", recipientPath, e);
-            throw new RuntimeException("File write failed", e);
+            sendCodeAsync(recipientPath, code).join();
+        } catch (CompletionException e) {
+            logger.error("Failed to write OTP to file {}", recipientPath, e.getCause());
+            throw new RuntimeException("File write failed", e.getCause());
         }
     }
-}
 
+    /**
+     * Ставит запись в очередь группового писателя.
+     *
+     * @return future, завершающийся после записи пачки в файл
+     */
+    @Override
+    public CompletableFuture<Void> sendCodeAsync(String recipientPath, String code) {
+        Path path;
+        try {
+            path = Paths.get(recipientPath);
+        } catch (InvalidPathException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Invalid file path: " + recipientPath, e));
+        }
+        String entry = LocalDateTime.now().format(TIMESTAMP_FORMAT) + " - OTP: " + code + System.lineSeparator();
+        return writer.append(path, entry.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return снимок счётчиков группового писателя
+     */
+    @Override
+    public Map<String, Object> metrics() {
+        return writer.metrics();
+    }
+
+    /**
+     * Дописывает очередь и закрывает файлы.
+     */
+    @Override
+    public void close() {
+        writer.close();
+    }
+}
@@ -0,0 +1,341 @@
+package otp.service.notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Запись строк в файлы с групповой фиксацией.
+ * <p>
+ * Отправители кладут записи в общую ограниченную очередь и получают future.
+ * Единственный поток-писатель забирает накопившиеся записи пачкой, группирует
+ * их по файлу, пишет каждую группу одним gathering-вызовом в уже открытый
+ * FileChannel и выполняет fsync согласно политике:
+ * <ul>
+ *   <li>BATCH    — force() после каждой пачки, future завершается после fsync;
+ *       если fsync файла не удался, его записи завершаются ошибкой;</li>
+ *   <li>INTERVAL — force() не чаще fsyncIntervalMs;</li>
+ *   <li>NEVER    — синхронизацию выполняет ОС.</li>
+ * </ul>
+ * Каналы держатся открытыми (не более maxOpenFiles, вытеснение LRU), файлы
+ * ротируются по размеру и по времени. Канал, на котором fsync не удался, закрывается
+ * и открывается заново при следующей записи: после ошибки fsync состояние
+ * несинхронизированных страниц не гарантировано, повторный force() мог бы его скрыть.
+ * </p>
+ */
+public class GroupCommitFileWriter {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitFileWriter.class);
+    private static final DateTimeFormatter ROTATE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /** Политика синхронизации с диском */
+    public enum FsyncPolicy {
+        BATCH,
+        INTERVAL,
+        NEVER
+    }
+
+    private final BlockingQueue<Entry> queue;
+    private final int maxBatch;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long rotateMaxBytes;
+    private final long rotateIntervalNanos;
+    private final Map<Path, Target> open;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private long lastForce = System.nanoTime();
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public GroupCommitFileWriter(int queueCapacity, int maxBatch, FsyncPolicy fsyncPolicy,
+                                 long fsyncIntervalMs, long rotateMaxBytes, long rotateIntervalMs,
+                                 int maxOpenFiles) {
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        this.rotateMaxBytes = rotateMaxBytes;
+        this.rotateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(rotateIntervalMs);
+        // Порядок доступа: при превышении лимита закрывается давно не использованный файл
+        this.open = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Target> eldest) {
+                if (size() > maxOpenFiles) {
+                    eldest.getValue().close(true);
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.writer = new Thread(this::writeLoop, "file-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Ставит строку в очередь на запись в файл.
+     *
+     * @return future, завершающийся после записи (и fsync при политике BATCH)
+     */
+    public CompletableFuture<Void> append(Path path, byte[] line) {
+        Entry entry = new Entry(path, line);
+        if (!running || !queue.offer(entry)) {
+            failures.increment();
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException(running ? "File writer queue is full" : "File writer is stopped"));
+        }
+        return entry.future;
+    }
+
+    /**
+     * Дописывает оставшиеся записи, синхронизирует и закрывает все файлы.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return снимок счётчиков писателя
+     */
+    public Map<String, Object> metrics() {
+        long b = batches.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queueDepth", queue.size());
+        m.put("written", written.sum());
+        m.put("batches", b);
+        m.put("avgBatchSize", b == 0 ? 0 : written.sum() / b);
+        m.put("fsyncs", fsyncs.sum());
+        m.put("rotations", rotations.sum());
+        m.put("failures", failures.sum());
+        return m;
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    commit(batch);
+                }
+                if (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastForce >= fsyncIntervalNanos) {
+                    forceAll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("File group commit failed: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        Iterator<Target> it = open.values().iterator();
+        while (it.hasNext()) {
+            it.next().close(fsyncPolicy != FsyncPolicy.NEVER);
+            it.remove();
+        }
+    }
+
+    private void commit(List<Entry> batch) {
+        Map<Path, List<Entry>> byPath = new LinkedHashMap<>();
+        for (Entry e : batch) {
+            byPath.computeIfAbsent(e.path, p -> new ArrayList<>()).add(e);
+        }
+        Map<Path, Target> touched = new LinkedHashMap<>();
+        for (Map.Entry<Path, List<Entry>> group : byPath.entrySet()) {
+            List<Entry> entries = group.getValue();
+            try {
+                ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+                long bytes = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(entries.get(i).line);
+                    bytes += entries.get(i).line.length;
+                }
+                Target target = target(group.getKey(), bytes);
+                long remaining = bytes;
+                while (remaining > 0) {
+                    remaining -= target.channel.write(buffers);
+                }
+                target.size += bytes;
+                target.dirty = true;
+                touched.put(group.getKey(), target);
+            } catch (IOException e) {
+                failures.add(entries.size());
+                logger.error("Failed to write {} OTP entries to {}: {}", entries.size(), group.getKey(), e.getMessage());
+                Target broken = open.remove(group.getKey());
+                if (broken != null) {
+                    broken.close(false);
+                }
+                entries.forEach(en -> en.future.completeExceptionally(e));
+            }
+        }
+        int done = 0;
+        for (Map.Entry<Path, Target> t : touched.entrySet()) {
+            List<Entry> entries = byPath.get(t.getKey());
+            if (fsyncPolicy == FsyncPolicy.BATCH) {
+                // Вытесненный в этой же пачке канал уже синхронизирован при закрытии;
+                // если там fsync не удался, force() на закрытом канале сообщит ошибку
+                try {
+                    t.getValue().force();
+                } catch (IOException e) {
+                    failures.add(entries.size());
+                    logger.error("fsync of {} failed, {} OTP entries not committed: {}",
+                            t.getKey(), entries.size(), e.getMessage());
+                    reopenLater(t.getKey(), t.getValue());
+                    entries.forEach(en -> en.future.completeExceptionally(e));
+                    continue;
+                }
+            }
+            done += entries.size();
+            entries.forEach(en -> en.future.complete(null));
+        }
+        if (fsyncPolicy == FsyncPolicy.BATCH) {
+            lastForce = System.nanoTime();
+        }
+        batches.increment();
+        written.add(done);
+    }
+
+    // Закрывает канал после ошибки: следующая запись в файл откроет его заново
+    private void reopenLater(Path path, Target target) {
+        open.remove(path, target);
+        target.close(false);
+    }
+
+    // Возвращает открытый канал файла, при необходимости открывая или ротируя его
+    private Target target(Path path, long incomingBytes) throws IOException {
+        Target t = open.get(path);
+        long now = System.nanoTime();
+        if (t != null) {
+            boolean bySize = rotateMaxBytes > 0 && t.size > 0 && t.size + incomingBytes > rotateMaxBytes;
+            boolean byTime = rotateIntervalNanos > 0 && now - t.openedAt >= rotateIntervalNanos && t.size > 0;
+            if (bySize || byTime) {
+                open.remove(path);
+                t.close(fsyncPolicy != FsyncPolicy.NEVER);
+                rotate(path);
+                t = null;
+            }
+        }
+        if (t == null) {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            t = new Target(channel, channel.size());
+            open.put(path, t);
+        }
+        return t;
+    }
+
+    private void rotate(Path path) throws IOException {
+        String base = path.getFileName() + "." + LocalDateTime.now().format(ROTATE_SUFFIX);
+        Path rotated = path.resolveSibling(base);
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = path.resolveSibling(base + "-" + i);
+        }
+        Files.move(path, rotated);
+        rotations.increment();
+        logger.info("Rotated OTP file {} to {}", path, rotated.getFileName());
+    }
+
+    private void forceAll() {
+        Iterator<Map.Entry<Path, Target>> it = open.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Target> t = it.next();
+            try {
+                t.getValue().force();
+            } catch (IOException e) {
+                failures.increment();
+                logger.error("fsync of {} failed: {}", t.getKey(), e.getMessage());
+                it.remove();
+                t.getValue().close(false);
+            }
+        }
+        lastForce = System.nanoTime();
+    }
+
+    /**
+     * Запись, ожидающая фиксации.
+     */
+    private static final class Entry {
+        final Path path;
+        final byte[] line;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Entry(Path path, byte[] line) {
+            this.path = path;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Открытый файл и его состояние для ротации.
+     */
+    private final class Target {
+        final FileChannel channel;
+        final long openedAt = System.nanoTime();
+        long size;
+        boolean dirty;
+
+        Target(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        void force() throws IOException {
+            if (!dirty) {
+                return;
+            }
+            channel.force(false);
+            fsyncs.increment();
+            dirty = false;
+        }
+
+        void close(boolean sync) {
+            if (sync) {
+                try {
+                    force();
+                } catch (IOException e) {
+                    failures.increment();
+                    logger.error("fsync on close failed: {}", e.getMessage());
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing file channel: {}", e.getMessage());
+            }
+        }
+    }
+}
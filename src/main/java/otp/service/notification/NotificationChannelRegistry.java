@@ -0,0 +1,190 @@
+package otp.service.notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Реестр каналов отправки OTP-кодов.
+ * <p>
+ * Создаёт реализацию NotificationService каждого канала один раз при старте
+ * (конфигурация провайдера читается только здесь), по желанию прогревает соединения,
+ * учитывает число отправок в полёте и здоровье канала, а при остановке закрывает ресурсы.
+ * Канал, который не удалось инициализировать, помечается UNAVAILABLE
+ * и не мешает работе остальных. Канал, созданный, но не прогретый, остаётся
+ * в работе со статусом DEGRADED до первой успешной отправки.
+ * </p>
+ */
+public class NotificationChannelRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationChannelRegistry.class);
+
+    /** Число ошибок подряд, после которого канал считается DOWN */
+    private final int failureThreshold;
+    private final Map<NotificationChannel, ChannelHandle> handles = new EnumMap<>(NotificationChannel.class);
+
+    /**
+     * @param warmUp           открыть соединения с провайдерами сразу
+     * @param failureThreshold число ошибок подряд для перевода канала в DOWN
+     */
+    public NotificationChannelRegistry(boolean warmUp, int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        register(NotificationChannel.EMAIL, EmailNotificationService::new, warmUp);
+        register(NotificationChannel.SMS, SmsNotificationService::new, warmUp);
+        register(NotificationChannel.TELEGRAM, TelegramNotificationService::new, warmUp);
+        register(NotificationChannel.FILE, FileNotificationService::new, warmUp);
+    }
+
+    private void register(NotificationChannel channel, Supplier<NotificationService> factory, boolean warmUp) {
+        ChannelHandle handle = new ChannelHandle(channel);
+        handles.put(channel, handle);
+        try {
+            handle.service = factory.get();
+        } catch (Exception e) {
+            handle.initError = e.getMessage();
+            logger.error("Notification channel {} is unavailable: {}", channel, e.getMessage(), e);
+            return;
+        }
+        if (warmUp) {
+            try {
+                handle.service.warmUp();
+            } catch (Exception e) {
+                // Прогрев необязателен: провайдер может подняться позже, канал не отключаем
+                handle.warmUpFailed = true;
+                handle.onFailure(e);
+                logger.warn("Notification channel {} warm-up failed: {}", channel, e.getMessage());
+            }
+        }
+        logger.info("Notification channel {} initialized", channel);
+    }
+
+    /**
+     * Возвращает созданную при старте реализацию канала.
+     * @throws ChannelUnavailableException если канал не удалось инициализировать
+     */
+    public NotificationService getService(NotificationChannel channel) {
+        ChannelHandle handle = handles.get(channel);
+        if (handle.service == null) {
+            throw new ChannelUnavailableException(channel);
+        }
+        return handle.service;
+    }
+
+    /**
+     * Отправляет код через канал с учётом отправок в полёте и здоровья канала.
+     * @return future, завершающийся после подтверждения провайдером
+     */
+    public CompletableFuture<Void> send(NotificationChannel channel, String recipient, String code) {
+        ChannelHandle handle = handles.get(channel);
+        CompletableFuture<Void> result;
+        handle.inFlight.incrementAndGet();
+        try {
+            result = getService(channel).sendCodeAsync(recipient, code);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((v, err) -> {
+            handle.inFlight.decrementAndGet();
+            if (err == null) {
+                handle.onSuccess();
+            } else {
+                handle.onFailure(err);
+            }
+        });
+    }
+
+    /**
+     * @return состояние каждого канала: статус, отправки в полёте, ошибки и метрики провайдера
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        handles.forEach((channel, handle) -> result.put(channel.name(), handle.metrics()));
+        return result;
+    }
+
+    /**
+     * Закрывает ресурсы всех каналов.
+     */
+    public void close() {
+        handles.values().forEach(handle -> {
+            if (handle.service != null) {
+                try {
+                    handle.service.close();
+                } catch (Exception e) {
+                    logger.warn("Error closing notification channel {}: {}", handle.channel, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Экземпляр канала и его счётчики здоровья.
+     */
+    private final class ChannelHandle {
+        final NotificationChannel channel;
+        volatile NotificationService service;
+        volatile String initError;
+        /** Прогрев не удался, и с тех пор не было успешной отправки */
+        volatile boolean warmUpFailed;
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final LongAdder successes = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        volatile long lastSuccessAt;
+        volatile long lastFailureAt;
+        volatile String lastError;
+
+        ChannelHandle(NotificationChannel channel) {
+            this.channel = channel;
+        }
+
+        void onSuccess() {
+            successes.increment();
+            consecutiveFailures.set(0);
+            warmUpFailed = false;
+            lastSuccessAt = System.currentTimeMillis();
+        }
+
+        void onFailure(Throwable err) {
+            failures.increment();
+            lastFailureAt = System.currentTimeMillis();
+            lastError = err.getMessage();
+            if (consecutiveFailures.incrementAndGet() == failureThreshold) {
+                logger.warn("Notification channel {} is DOWN after {} consecutive failures", channel, failureThreshold);
+            }
+        }
+
+        String status() {
+            if (service == null) {
+                return "UNAVAILABLE";
+            }
+            if (consecutiveFailures.get() >= failureThreshold) {
+                return "DOWN";
+            }
+            return warmUpFailed ? "DEGRADED" : "UP";
+        }
+
+        Map<String, Object> metrics() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("status", status());
+            m.put("inFlight", inFlight.get());
+            m.put("successes", successes.sum());
+            m.put("failures", failures.sum());
+            m.put("consecutiveFailures", consecutiveFailures.get());
+            m.put("lastSuccessAt", lastSuccessAt);
+            m.put("lastFailureAt", lastFailureAt);
+            m.put("lastError", service == null ? initError : lastError);
+            if (service != null) {
+                m.put("provider", service.metrics());
+            }
+            return m;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package otp.service.notification;
+
+import otp.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Асинхронная отправка OTP-кодов вне потока HTTP-запроса.
+ * <p>
+ * Для каждого канала заводится собственный пул рабочих потоков с ограниченной очередью
+ * (notification.&lt;channel&gt;.workers и notification.&lt;channel&gt;.queueCapacity),
+ * поэтому медленный провайдер одного канала не задерживает остальные.
+ * Если очередь канала заполнена, dispatch() бросает NotificationQueueFullException —
+ * контроллер отвечает 503, а не ждёт освобождения места.
+ * </p>
+ */
+public class NotificationDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    private final Map<NotificationChannel, ChannelWorker> workers = new EnumMap<>(NotificationChannel.class);
+
+    /**
+     * @param registry реестр каналов, созданных при старте приложения
+     */
+    public NotificationDispatcher(NotificationChannelRegistry registry) {
+        for (NotificationChannel channel : NotificationChannel.values()) {
+            String prefix = "notification." + channel.name().toLowerCase() + ".";
+            int threads = AppConfig.getInt(prefix + "workers", 4);
+            int capacity = AppConfig.getInt(prefix + "queueCapacity", 1_000);
+            workers.put(channel, new ChannelWorker(channel, registry, threads, capacity));
+        }
+    }
+
+    /**
+     * Проверяет, что канал инициализирован и в его очереди есть место, до сохранения кода в БД.
+     * @throws ChannelUnavailableException если канал недоступен
+     * @throws NotificationQueueFullException если очередь канала заполнена
+     */
+    public void ensureAvailable(NotificationChannel channel) {
+        ChannelWorker worker = workers.get(channel);
+        worker.registry.getService(channel);
+        if (worker.executor.getQueue().remainingCapacity() == 0) {
+            worker.rejected.increment();
+            throw new NotificationQueueFullException(channel);
+        }
+    }
+
+    /**
+     * Ставит отправку кода в очередь канала и сразу возвращает управление.
+     *
+     * @param channel   канал отправки
+     * @param recipient адрес получателя
+     * @param code      OTP-код
+     * @throws NotificationQueueFullException если очередь канала заполнена
+     */
+    public void dispatch(NotificationChannel channel, String recipient, String code) {
+        ChannelWorker worker = workers.get(channel);
+        long enqueuedAt = System.nanoTime();
+        try {
+            worker.executor.execute(() -> worker.send(recipient, code, enqueuedAt));
+            worker.submitted.increment();
+        } catch (RejectedExecutionException e) {
+            worker.rejected.increment();
+            throw new NotificationQueueFullException(channel);
+        }
+    }
+
+    /**
+     * Ставит в очередь канала группу уведомлений. Группа делится на не больше чем
+     * workers частей подряд, каждая часть занимает одно место в очереди и отправляется
+     * одним рабочим потоком, так что пачка из тысячи кодов не вытесняет одиночные отправки.
+     *
+     * @param channel       канал отправки
+     * @param notifications уведомления канала
+     * @return сколько первых уведомлений списка поставлено в очередь; остальные отклонены
+     *         из-за заполненной очереди
+     */
+    public int dispatchAll(NotificationChannel channel, List<Notification> notifications) {
+        ChannelWorker worker = workers.get(channel);
+        int n = notifications.size();
+        int slices = Math.min(n, worker.executor.getMaximumPoolSize());
+        long enqueuedAt = System.nanoTime();
+        int queued = 0;
+        for (int i = 0; i < slices; i++) {
+            int from = (int) ((long) n * i / slices);
+            int to = (int) ((long) n * (i + 1) / slices);
+            List<Notification> slice = notifications.subList(from, to);
+            try {
+                worker.executor.execute(() -> slice.forEach(msg -> worker.sendSafely(msg, enqueuedAt)));
+            } catch (RejectedExecutionException e) {
+                worker.rejected.add(n - queued);
+                logger.warn("Channel {} queue is full, {} of {} notifications rejected", channel, n - queued, n);
+                break;
+            }
+            worker.submitted.add(to - from);
+            queued = to;
+        }
+        return queued;
+    }
+
+    /**
+     * @return снимок метрик по каждому каналу: глубина очереди, задержка, ошибки
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        workers.forEach((channel, worker) -> result.put(channel.name(), worker.metrics()));
+        return result;
+    }
+
+    /**
+     * Прекращает приём новых уведомлений и дожидается отправки уже поставленных в очередь.
+     * @param timeoutMs максимальное время ожидания на все каналы
+     */
+    public void shutdown(long timeoutMs) {
+        workers.values().forEach(w -> w.executor.shutdown());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (ChannelWorker worker : workers.values()) {
+            try {
+                long left = deadline - System.nanoTime();
+                if (!worker.executor.awaitTermination(Math.max(left, 0), TimeUnit.NANOSECONDS)) {
+                    int dropped = worker.executor.shutdownNow().size();
+                    logger.warn("Channel {} stopped with {} undelivered notifications", worker.channel, dropped);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                worker.executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Пул рабочих потоков и счётчики одного канала.
+     */
+    private static final class ChannelWorker {
+        final NotificationChannel channel;
+        final NotificationChannelRegistry registry;
+        final ThreadPoolExecutor executor;
+
+        final LongAdder submitted = new LongAdder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder totalLagNanos = new LongAdder();
+        final AtomicLong maxLagNanos = new AtomicLong();
+        final LongAdder totalSendNanos = new LongAdder();
+
+        ChannelWorker(NotificationChannel channel, NotificationChannelRegistry registry, int threads, int capacity) {
+            this.channel = channel;
+            this.registry = registry;
+            AtomicInteger counter = new AtomicInteger();
+            String prefix = "notify-" + channel.name().toLowerCase() + "-";
+            this.executor = new ThreadPoolExecutor(
+                    threads, threads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacity),
+                    r -> {
+                        Thread t = new Thread(r, prefix + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        void send(String recipient, String code, long enqueuedAt) {
+            long start = System.nanoTime();
+            long lag = start - enqueuedAt;
+            totalLagNanos.add(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+            CompletableFuture<Void> result = registry.send(channel, recipient, code);
+            // Асинхронные каналы (SMPP) освобождают рабочий поток сразу после отправки запроса
+            result.whenComplete((v, err) -> {
+                totalSendNanos.add(System.nanoTime() - start);
+                if (err == null) {
+                    sent.increment();
+                } else {
+                    failed.increment();
+                    logger.error("Async {} notification to {} failed: {}", channel, recipient, err.getMessage());
+                }
+            });
+        }
+
+        // Отправка из пачки: ошибка одного получателя не прерывает отправку остальных
+        void sendSafely(Notification msg, long enqueuedAt) {
+            try {
+                send(msg.recipient, msg.code, enqueuedAt);
+            } catch (RuntimeException e) {
+                failed.increment();
+                logger.error("{} notification to {} failed: {}", channel, msg.recipient, e.getMessage());
+            }
+        }
+
+        Map<String, Object> metrics() {
+            long started = sent.sum() + failed.sum();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("queueDepth", executor.getQueue().size());
+            m.put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+            m.put("inFlight", executor.getActiveCount());
+            m.put("submitted", submitted.sum());
+            m.put("sent", sent.sum());
+            m.put("failed", failed.sum());
+            m.put("rejected", rejected.sum());
+            m.put("avgLagMs", started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLagNanos.sum() / started));
+            m.put("maxLagMs", TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()));
+            m.put("avgSendMs", started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalSendNanos.sum() / started));
+            return m;
+        }
+    }
+
+    /**
+     * Уведомление для групповой отправки.
+     */
+    public static final class Notification {
+        final String recipient;
+        final String code;
+
+        /**
+         * @param recipient адрес получателя
+         * @param code      OTP-код
+         */
+        public Notification(String recipient, String code) {
+            this.recipient = recipient;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package otp.service.notification;
+
+/**
+ * Исключение, сигнализирующее, что очередь отправки канала переполнена
+ * и новое уведомление не может быть принято.
+ */
+public class NotificationQueueFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final NotificationChannel channel;
+
+    public NotificationQueueFullException(NotificationChannel channel) {
+        super("Notification queue is full for channel " + channel);
+        this.channel = channel;
+    }
+
+    /**
+     * @return канал, очередь которого переполнена
+     */
+    public NotificationChannel getChannel() {
+        return channel;
+    }
+}
@@ -1,5 +1,8 @@
 package otp.service.notification;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Интерфейс для отправки OTP-кодов.
  * Реализации данного интерфейса отвечают за отправку кода
@@ -17,4 +20,42 @@ public interface NotificationService {
      * @param code      строковое представление OTP-кода.
      */
     void sendCode(String recipient, String code);
-}
\ No newline at end of file
+
+    /**
+     * Асинхронная отправка кода. Реализации, умеющие не блокироваться
+     * на ответе провайдера, переопределяют этот метод; по умолчанию
+     * выполняется синхронный sendCode() в вызывающем потоке.
+     *
+     * @param recipient адрес или идентификатор получателя
+     * @param code      строковое представление OTP-кода
+     * @return future, завершающийся после подтверждения провайдером
+     */
+    default CompletableFuture<Void> sendCodeAsync(String recipient, String code) {
+        try {
+            sendCode(recipient, code);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Заранее открывает соединения с провайдером, чтобы первые отправки
+     * не тратили время на установку соединения. По умолчанию ничего не делает.
+     */
+    default void warmUp() {
+    }
+
+    /**
+     * @return снимок счётчиков реализации (соединения, очереди); по умолчанию пустой
+     */
+    default Map<String, Object> metrics() {
+        return Map.of();
+    }
+
+    /**
+     * Освобождает ресурсы канала при остановке приложения. По умолчанию ничего не делает.
+     */
+    default void close() {
+    }
+}
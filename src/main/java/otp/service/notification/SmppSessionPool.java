@@ -0,0 +1,419 @@
+package otp.service.notification;
+
+import org.smpp.ServerPDUEvent;
+import org.smpp.ServerPDUEventListener;
+import org.smpp.Session;
+import org.smpp.TCPIPConnection;
+import org.smpp.pdu.BindResponse;
+import org.smpp.pdu.BindTransmitter;
+import org.smpp.pdu.EnquireLink;
+import org.smpp.pdu.PDU;
+import org.smpp.pdu.Request;
+import org.smpp.pdu.SubmitSM;
+import org.smpp.pdu.SubmitSMResp;
+import org.smpp.pdu.Unbind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пул долгоживущих SMPP-сессий в режиме transmitter.
+ * <p>
+ * Каждая сессия связывается (bind) один раз и работает асинхронно: submit_sm
+ * отправляется без ожидания ответа, а submit_sm_resp сопоставляется с запросом
+ * по sequence number в слушателе PDU. Число неподтверждённых запросов на сессию
+ * ограничено окном (window). Сессии поддерживаются enquire_link-запросами и
+ * автоматически пересвязываются после обрыва или таймаута ответа.
+ * </p>
+ */
+public class SmppSessionPool {
+    private static final Logger logger = LoggerFactory.getLogger(SmppSessionPool.class);
+
+    private final String host;
+    private final int port;
+    private final String systemId;
+    private final String password;
+    private final String systemType;
+    private final String addressRange;
+    private final int windowSize;
+    private final long responseTimeoutMs;
+    private final long rebindDelayMs;
+
+    private final List<PooledSession> sessions = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder binds = new LongAdder();
+
+    public SmppSessionPool(String host, int port, String systemId, String password,
+                           String systemType, String addressRange,
+                           int poolSize, int windowSize, long responseTimeoutMs,
+                           long enquireLinkIntervalMs, long rebindDelayMs) {
+        this.host = host;
+        this.port = port;
+        this.systemId = systemId;
+        this.password = password;
+        this.systemType = systemType;
+        this.addressRange = addressRange;
+        this.windowSize = windowSize;
+        this.responseTimeoutMs = responseTimeoutMs;
+        this.rebindDelayMs = rebindDelayMs;
+        for (int i = 0; i < poolSize; i++) {
+            sessions.add(new PooledSession(i));
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smpp-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::expireTimedOut, 1, 1, TimeUnit.SECONDS);
+        if (enquireLinkIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::enquireLinks,
+                    enquireLinkIntervalMs, enquireLinkIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Связывает все сессии пула. Сессии, которые не удалось связать,
+     * будут пересвязаны в фоне. Повторные вызовы ничего не делают.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        for (PooledSession s : sessions) {
+            s.connectOrReschedule();
+        }
+    }
+
+    /**
+     * Отправляет submit_sm через свободную сессию пула.
+     * Блокируется, только если окна всех сессий заполнены.
+     *
+     * @param submit подготовленный SubmitSM
+     * @return future, завершающийся message_id из submit_sm_resp
+     */
+    public CompletableFuture<String> submit(SubmitSM submit) {
+        start();
+        PooledSession session;
+        try {
+            session = acquireWindow();
+        } catch (Exception e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+        return session.submit(submit);
+    }
+
+    /**
+     * Отвязывает и закрывает все сессии.
+     */
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        for (PooledSession s : sessions) {
+            s.shutdown();
+        }
+        logger.info("SMPP session pool closed");
+    }
+
+    /**
+     * @return число связанных сессий
+     */
+    public int boundSessions() {
+        int count = 0;
+        for (PooledSession s : sessions) {
+            if (s.bound) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return снимок счётчиков пула
+     */
+    public Map<String, Object> metrics() {
+        int outstanding = 0;
+        for (PooledSession s : sessions) {
+            outstanding += s.pending.size();
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("sessions", sessions.size());
+        m.put("bound", boundSessions());
+        m.put("outstanding", outstanding);
+        m.put("windowSize", windowSize);
+        m.put("submitted", submitted.sum());
+        m.put("acknowledged", acknowledged.sum());
+        m.put("rejected", rejected.sum());
+        m.put("timeouts", timeouts.sum());
+        m.put("binds", binds.sum());
+        return m;
+    }
+
+    // Ищем связанную сессию со свободным местом в окне, начиная с очередной по кругу
+    private PooledSession acquireWindow() throws InterruptedException, TimeoutException {
+        int size = sessions.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        PooledSession fallback = null;
+        for (int i = 0; i < size; i++) {
+            PooledSession s = sessions.get((start + i) % size);
+            if (!s.bound) {
+                continue;
+            }
+            if (s.window.tryAcquire()) {
+                return s;
+            }
+            if (fallback == null) {
+                fallback = s;
+            }
+        }
+        if (fallback == null) {
+            throw new IllegalStateException("No bound SMPP sessions available");
+        }
+        if (!fallback.window.tryAcquire(responseTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("SMPP window is full on all sessions");
+        }
+        return fallback;
+    }
+
+    private void expireTimedOut() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(responseTimeoutMs);
+        for (PooledSession s : sessions) {
+            for (Map.Entry<Integer, Pending> e : s.pending.entrySet()) {
+                Pending p = e.getValue();
+                if (now - p.sentAt > timeoutNanos && s.pending.remove(e.getKey(), p)) {
+                    timeouts.increment();
+                    p.fail(s, new TimeoutException("No SMPP response within " + responseTimeoutMs + " ms"));
+                    if (p.keepalive) {
+                        // SMSC не ответил на enquire_link — считаем соединение потерянным
+                        s.markBroken("enquire_link timeout");
+                    }
+                }
+            }
+        }
+    }
+
+    private void enquireLinks() {
+        for (PooledSession s : sessions) {
+            if (s.bound) {
+                s.enquireLink();
+            }
+        }
+    }
+
+    /**
+     * Ожидающий ответа запрос.
+     */
+    private static final class Pending {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final long sentAt = System.nanoTime();
+        final boolean keepalive;
+
+        Pending(boolean keepalive) {
+            this.keepalive = keepalive;
+        }
+
+        void fail(PooledSession owner, Throwable cause) {
+            if (!keepalive) {
+                owner.window.release();
+            }
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Одна SMPP-сессия пула и её слушатель асинхронных ответов.
+     */
+    private final class PooledSession implements ServerPDUEventListener {
+        final int index;
+        final Semaphore window = new Semaphore(windowSize);
+        final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+        volatile boolean bound;
+        private volatile TCPIPConnection connection;
+        private volatile Session session;
+
+        PooledSession(int index) {
+            this.index = index;
+        }
+
+        void connectOrReschedule() {
+            if (closed) {
+                return;
+            }
+            try {
+                bind();
+            } catch (Exception e) {
+                logger.warn("SMPP session {} bind failed: {}; retry in {} ms", index, e.getMessage(), rebindDelayMs);
+                scheduleRebind();
+            }
+        }
+
+        private void scheduleRebind() {
+            if (!closed) {
+                scheduler.schedule(this::connectOrReschedule, rebindDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void bind() throws Exception {
+            TCPIPConnection conn = new TCPIPConnection(host, port);
+            conn.setReceiveTimeout(responseTimeoutMs);
+            Session s = new Session(conn);
+
+            BindTransmitter bindReq = new BindTransmitter();
+            bindReq.setSystemId(systemId);
+            bindReq.setPassword(password);
+            bindReq.setSystemType(systemType);
+            bindReq.setInterfaceVersion((byte) 0x34);
+            bindReq.setAddressRange(addressRange);
+
+            // Связывание синхронное, после него ответы приходят в handleEvent()
+            BindResponse resp = s.bind(bindReq, this);
+            if (resp == null || resp.getCommandStatus() != 0) {
+                try { conn.close(); } catch (Exception ignored) {}
+                throw new IllegalStateException("SMPP bind failed: "
+                        + (resp == null ? "no response" : resp.getCommandStatus()));
+            }
+            this.connection = conn;
+            this.session = s;
+            this.bound = true;
+            binds.increment();
+            logger.info("SMPP session {} bound to {}:{}", index, host, port);
+        }
+
+        CompletableFuture<String> submit(SubmitSM submit) {
+            Pending p = new Pending(false);
+            submit.assignSequenceNumber();
+            pending.put(submit.getSequenceNumber(), p);
+            try {
+                synchronized (this) {
+                    session.submit(submit);
+                }
+                submitted.increment();
+            } catch (Exception e) {
+                if (pending.remove(submit.getSequenceNumber(), p)) {
+                    p.fail(this, e);
+                }
+                markBroken(e.getMessage());
+            }
+            return p.future;
+        }
+
+        void enquireLink() {
+            EnquireLink req = new EnquireLink();
+            req.assignSequenceNumber();
+            pending.put(req.getSequenceNumber(), new Pending(true));
+            try {
+                synchronized (this) {
+                    session.enquireLink(req);
+                }
+            } catch (Exception e) {
+                pending.remove(req.getSequenceNumber());
+                markBroken(e.getMessage());
+            }
+        }
+
+        @Override
+        public void handleEvent(ServerPDUEvent event) {
+            PDU pdu = event.getPDU();
+            if (pdu.isResponse()) {
+                Pending p = pending.remove(pdu.getSequenceNumber());
+                if (p == null) {
+                    return;
+                }
+                if (p.keepalive) {
+                    p.future.complete(null);
+                } else if (pdu.getCommandStatus() == 0) {
+                    acknowledged.increment();
+                    window.release();
+                    p.future.complete(pdu instanceof SubmitSMResp ? ((SubmitSMResp) pdu).getMessageId() : null);
+                } else {
+                    p.fail(this, new IllegalStateException("SMSC rejected submit_sm, status " + pdu.getCommandStatus()));
+                }
+            } else if (pdu.isRequest()) {
+                // Отвечаем на enquire_link/unbind со стороны SMSC
+                try {
+                    synchronized (this) {
+                        session.respond(((Request) pdu).getResponse());
+                    }
+                } catch (Exception e) {
+                    logger.debug("SMPP session {} failed to respond to {}: {}", index, pdu.getClass().getSimpleName(), e.getMessage());
+                }
+                if (pdu instanceof Unbind) {
+                    markBroken("unbind requested by SMSC");
+                }
+            }
+        }
+
+        void markBroken(String reason) {
+            synchronized (this) {
+                if (!bound) {
+                    return;
+                }
+                bound = false;
+                closeQuietly();
+            }
+            logger.warn("SMPP session {} lost ({}), rebinding in {} ms", index, reason, rebindDelayMs);
+            failAll(new IllegalStateException("SMPP session lost: " + reason));
+            scheduleRebind();
+        }
+
+        void shutdown() {
+            synchronized (this) {
+                if (bound) {
+                    try { session.unbind(); } catch (Exception ignored) {}
+                }
+                bound = false;
+                closeQuietly();
+            }
+            failAll(new IllegalStateException("SMPP session pool closed"));
+        }
+
+        private void failAll(Throwable cause) {
+            for (Integer seq : pending.keySet()) {
+                Pending p = pending.remove(seq);
+                if (p != null) {
+                    p.fail(this, cause);
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+            } catch (Exception ignored) {
+                // соединение уже могло быть закрыто
+            }
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (Exception ignored) {
+                // соединение уже могло быть закрыто
+            }
+        }
+    }
+}
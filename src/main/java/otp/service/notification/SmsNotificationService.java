@@ -1,39 +1,45 @@
 package otp.service.notification;
 
-import org.smpp.TCPIPConnection;
-import org.smpp.Session;
-import org.smpp.pdu.BindResponse;
-import org.smpp.pdu.BindTransmitter;
 import org.smpp.pdu.SubmitSM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Реализация NotificationService для отправки OTP-кодов по SMS
  * через эмулятор SMPP.
+ * <p>
+ * Сообщения отправляются через пул постоянно связанных сессий SmppSessionPool,
+ * поэтому bind/unbind не выполняются на каждый код. Параметры пула
+ * (smpp.pool.*) задаются в sms.properties.
+ * </p>
  */
 public class SmsNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(SmsNotificationService.class);
 
-    private final String host;
-    private final int port;
-    private final String systemId;
-    private final String password;
-    private final String systemType;
     private final String sourceAddr;
+    private final SmppSessionPool pool;
 
     public SmsNotificationService() {
         Properties props = loadConfig();
-        this.host = props.getProperty("smpp.host");
-        this.port = Integer.parseInt(props.getProperty("smpp.port"));
-        this.systemId = props.getProperty("smpp.system_id");
-        this.password = props.getProperty("smpp.password");
-        this.systemType = props.getProperty("smpp.system_type");
         this.sourceAddr = props.getProperty("smpp.source_addr");
+        this.pool = new SmppSessionPool(
+                props.getProperty("smpp.host"),
+                Integer.parseInt(props.getProperty("smpp.port")),
+                props.getProperty("smpp.system_id"),
+                props.getProperty("smpp.password"),
+                props.getProperty("smpp.system_type"),
+                sourceAddr,
+                Integer.parseInt(props.getProperty("smpp.pool.size", "2")),
+                Integer.parseInt(props.getProperty("smpp.pool.window", "10")),
+                Long.parseLong(props.getProperty("smpp.pool.responseTimeoutMs", "10000")),
+                Long.parseLong(props.getProperty("smpp.pool.enquireLinkIntervalMs", "30000")),
+                Long.parseLong(props.getProperty("smpp.pool.rebindDelayMs", "5000")));
     }
 
     private Properties loadConfig() {
@@ -50,37 +56,59 @@ public class SmsNotificationService implements NotificationService {
 
     @Override
     public void sendCode(String recipientPhone, String code) {
-        TCPIPConnection connection = null;
-        Session session = null;
         try {
-            connection = new TCPIPConnection(host, port);
-            session = new Session(connection);
-
-            BindTransmitter bindReq = new BindTransmitter();
-            bindReq.setSystemId(systemId);
-            bindReq.setPassword(password);
-            bindReq.setSystemType(systemType);
-            bindReq.setInterfaceVersion((byte) 0x34);
-            bindReq.setAddressRange(sourceAddr);
-
-            BindResponse bindResp = session.bind(bindReq);
-            if (bindResp.getCommandStatus() != 0) {
-                throw new RuntimeException("SMPP bind failed: " + bindResp.getCommandStatus());
-            }
+            sendCodeAsync(recipientPhone, code).join();
+        } catch (Exception e) {
+            throw new RuntimeException("SMS sending failed", e.getCause() != null ? e.getCause() : e);
+        }
+    }
 
-            SubmitSM submit = new SubmitSM();
+    /**
+     * Отправляет submit_sm без ожидания ответа SMSC.
+     * Future завершается при получении submit_sm_resp.
+     */
+    @Override
+    public CompletableFuture<Void> sendCodeAsync(String recipientPhone, String code) {
+        SubmitSM submit = new SubmitSM();
+        try {
             submit.setSourceAddr(sourceAddr);
             submit.setDestAddr(recipientPhone);
             submit.setShortMessage("Your OTP code: " + code);
-            session.submit(submit);
-
-            logger.info("OTP sent via SMS to {}", recipientPhone);
         } catch (Exception e) {
-            logger.error("Failed to send SMS to {}", recipientPhone, e);
-            throw new RuntimeException(e);
-        } finally {
-            if (session != null) try { session.unbind(); } catch (Exception ignored) {}
-            if (connection != null) try { connection.close(); } catch (IOException ignored) {}
+            logger.error("Failed to build SMS to {}", recipientPhone, e);
+            return CompletableFuture.failedFuture(e);
         }
+        return pool.submit(submit).handle((messageId, err) -> {
+            if (err != null) {
+                logger.error("Failed to send SMS to {}: {}", recipientPhone, err.getMessage());
+                throw new RuntimeException("SMS sending failed", err);
+            }
+            logger.info("OTP sent via SMS to {} (message_id={})", recipientPhone, messageId);
+            return null;
+        });
+    }
+
+    /**
+     * Связывает сессии пула заранее; без прогрева это произойдёт при первой отправке.
+     */
+    @Override
+    public void warmUp() {
+        pool.start();
+    }
+
+    /**
+     * @return снимок счётчиков пула SMPP-сессий
+     */
+    @Override
+    public Map<String, Object> metrics() {
+        return pool.metrics();
+    }
+
+    /**
+     * Отвязывает и закрывает все SMPP-сессии.
+     */
+    @Override
+    public void close() {
+        pool.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,221 @@
+package otp.service.notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пул подключённых SMTP-транспортов.
+ * <p>
+ * Соединение (connect, STARTTLS, AUTH) устанавливается один раз и используется
+ * для многих писем. Транспорт закрывается и заменяется новым, если он простаивал
+ * дольше idleTimeoutMs, отправил maxMessagesPerConnection писем или сервер разорвал
+ * соединение.
+ * </p>
+ */
+public class SmtpTransportPool {
+    private static final Logger logger = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private final Session session;
+    private final String username;
+    private final String password;
+    private final long idleTimeoutNanos;
+    private final int maxMessagesPerConnection;
+    private final long borrowTimeoutMs;
+
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore slots;
+    private final ScheduledExecutorService housekeeper;
+
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+
+    public SmtpTransportPool(Session session, String username, String password,
+                             int maxSize, long idleTimeoutMs, int maxMessagesPerConnection,
+                             long borrowTimeoutMs) {
+        this.session = session;
+        this.username = username;
+        this.password = password;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.slots = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smtp-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(idleTimeoutMs / 2, 1_000);
+        housekeeper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Открывает указанное число соединений заранее, чтобы первые письма
+     * не платили за установку соединения.
+     */
+    public void warmUp(int connections) {
+        for (int i = 0; i < connections; i++) {
+            try {
+                idle.offerLast(new PooledTransport(connect()));
+            } catch (MessagingException e) {
+                logger.warn("SMTP warm-up connection failed: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Берёт подключённый транспорт из пула, при необходимости подключая новый.
+     * Полученный транспорт обязательно вернуть через release().
+     *
+     * @throws TimeoutException если за borrowTimeoutMs свободного места в пуле не появилось
+     */
+    public PooledTransport borrow() throws MessagingException, TimeoutException, InterruptedException {
+        if (!slots.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No SMTP connection available within " + borrowTimeoutMs + " ms");
+        }
+        try {
+            PooledTransport pt;
+            while ((pt = idle.pollFirst()) != null) {
+                if (pt.isUsable(System.nanoTime())) {
+                    return pt;
+                }
+                closeQuietly(pt);
+            }
+            return new PooledTransport(connect());
+        } catch (MessagingException | RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Возвращает транспорт в пул.
+     * @param broken true, если при отправке произошла ошибка и соединение надо закрыть
+     */
+    public void release(PooledTransport pt, boolean broken) {
+        try {
+            if (broken || !pt.isUsable(System.nanoTime())) {
+                closeQuietly(pt);
+            } else {
+                pt.lastUsed = System.nanoTime();
+                idle.offerFirst(pt);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Переподключает транспорт после ошибки отправки, не возвращая его в пул.
+     */
+    public void reconnect(PooledTransport pt) throws MessagingException {
+        closeQuietly(pt);
+        pt.transport = connect();
+        pt.messagesSent = 0;
+        reconnects.increment();
+    }
+
+    /**
+     * Закрывает все простаивающие соединения и останавливает обслуживание.
+     */
+    public void close() {
+        housekeeper.shutdownNow();
+        PooledTransport pt;
+        while ((pt = idle.pollFirst()) != null) {
+            closeQuietly(pt);
+        }
+    }
+
+    /**
+     * @return снимок счётчиков пула
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("idle", idle.size());
+        m.put("waiting", slots.getQueueLength());
+        m.put("connects", connects.sum());
+        m.put("reconnects", reconnects.sum());
+        m.put("messages", messages.sum());
+        return m;
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect(username, password);
+        connects.increment();
+        return transport;
+    }
+
+    private void closeIdle() {
+        long now = System.nanoTime();
+        for (PooledTransport pt : idle) {
+            if (!pt.isUsable(now) && idle.remove(pt)) {
+                closeQuietly(pt);
+            }
+        }
+    }
+
+    private void closeQuietly(PooledTransport pt) {
+        try {
+            pt.transport.close();
+        } catch (MessagingException e) {
+            logger.debug("Error closing SMTP transport: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Подключённый транспорт и его счётчики.
+     */
+    public final class PooledTransport {
+        private Transport transport;
+        private int messagesSent;
+        private volatile long lastUsed = System.nanoTime();
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * @return подключённый транспорт для sendMessage()
+         */
+        public Transport transport() {
+            return transport;
+        }
+
+        /**
+         * Учитывает отправленное письмо для ограничения maxMessagesPerConnection.
+         */
+        public void messageSent() {
+            messagesSent++;
+            messages.increment();
+        }
+
+        /**
+         * @return true, если лимит писем на соединение исчерпан
+         */
+        public boolean exhausted() {
+            return maxMessagesPerConnection > 0 && messagesSent >= maxMessagesPerConnection;
+        }
+
+        boolean isUsable(long now) {
+            // isConnected() для SMTP отправляет NOOP, поэтому проверяется последним
+            return !exhausted()
+                    && (idleTimeoutNanos <= 0 || now - lastUsed < idleTimeoutNanos)
+                    && transport.isConnected();
+        }
+    }
+}
@@ -1,22 +1,35 @@
 package otp.service.notification;
 
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Реализация NotificationService для отправки OTP-кодов через Telegram Bot API.
  * Конфигурация берётся из файла telegram.properties.
+ * <p>
+ * Все сообщения отправляются одним общим неблокирующим HttpClient: соединения
+ * с Bot API и TLS-сессии переиспользуются между сообщениями. Число одновременных
+ * запросов ограничено telegram.maxInFlight.
+ * </p>
  */
 public class TelegramNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(TelegramNotificationService.class);
@@ -24,12 +37,37 @@ public class TelegramNotificationService implements NotificationService {
     private final String apiBaseUrl;   // например "https://api.telegram.org/bot"
     private final String token;        // токен бота
     private final String defaultChatId;// chatId по умолчанию
+    private final Duration requestTimeout;
+    private final long acquireTimeoutMs;
+
+    private final ExecutorService httpExecutor;
+    private final HttpClient httpClient;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
 
     public TelegramNotificationService() {
         Properties props = loadConfig();
         this.apiBaseUrl    = props.getProperty("telegram.apiUrl");
         this.token         = props.getProperty("telegram.token");
         this.defaultChatId = props.getProperty("telegram.chatId");
+        this.requestTimeout = Duration.ofMillis(
+                Long.parseLong(props.getProperty("telegram.requestTimeoutMs", "10000")));
+        this.acquireTimeoutMs = Long.parseLong(props.getProperty("telegram.acquireTimeoutMs", "5000"));
+        this.maxInFlight = Integer.parseInt(props.getProperty("telegram.maxInFlight", "64"));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.httpExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "telegram-http");
+            t.setDaemon(true);
+            return t;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(
+                        Long.parseLong(props.getProperty("telegram.connectTimeoutMs", "5000"))))
+                .executor(httpExecutor)
+                .build();
     }
 
     private Properties loadConfig() {
@@ -52,34 +90,105 @@ public class TelegramNotificationService implements NotificationService {
      */
     @Override
     public void sendCode(String recipientChatId, String code) {
+        try {
+            sendCodeAsync(recipientChatId, code).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Telegram sending failed", e.getCause());
+        }
+    }
+
+    /**
+     * Отправляет сообщение без блокировки вызывающего потока на ответе Bot API.
+     * Блокировка возможна только при исчерпании лимита одновременных запросов.
+     *
+     * @return future, завершающийся после ответа 200 от Bot API
+     */
+    @Override
+    public CompletableFuture<Void> sendCodeAsync(String recipientChatId, String code) {
         String chatId = (recipientChatId == null || recipientChatId.isBlank())
                 ? defaultChatId
                 : recipientChatId;
         String text = "Your one-time confirmation code is: " + code;
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            // Составляем URL вида: https://api.telegram.org/bot<TOKEN>/sendMessage?chat_id=<ID>&text=<TEXT>
-            URI uri = new URIBuilder(apiBaseUrl + token + "/sendMessage")
-                    .addParameter("chat_id", chatId)
-                    .addParameter("text", text)
-                    .build();
-
-            HttpGet request = new HttpGet(uri);
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                int status = response.getStatusLine().getStatusCode();
-                if (status != 200) {
-                    logger.error("Telegram API error. Status code: {}", status);
-                    throw new RuntimeException("Telegram API returned " + status);
-                }
-                logger.info("OTP code sent via Telegram to chatId {}", chatId);
-            }
-        } catch (URISyntaxException e) {
+        // Составляем URL вида: https://api.telegram.org/bot<TOKEN>/sendMessage?chat_id=<ID>&text=<TEXT>
+        HttpRequest request;
+        try {
+            URI uri = URI.create(apiBaseUrl + token + "/sendMessage"
+                    + "?chat_id=" + URLEncoder.encode(chatId, StandardCharsets.UTF_8)
+                    + "&text=" + URLEncoder.encode(text, StandardCharsets.UTF_8));
+            request = HttpRequest.newBuilder(uri).timeout(requestTimeout).GET().build();
+        } catch (IllegalArgumentException e) {
             logger.error("Invalid URI for Telegram API", e);
-            throw new RuntimeException("Invalid Telegram API URI", e);
-        } catch (Exception e) {
-            logger.error("Failed to send Telegram message to {}", chatId, e);
-            throw new RuntimeException("Telegram sending failed", e);
+            return CompletableFuture.failedFuture(new RuntimeException("Invalid Telegram API URI", e));
+        }
+
+        try {
+            if (!inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                failed.increment();
+                return CompletableFuture.failedFuture(
+                        new IllegalStateException("Too many in-flight Telegram requests"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
         }
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, err) -> {
+                    inFlight.release();
+                    if (err != null) {
+                        failed.increment();
+                        logger.error("Failed to send Telegram message to {}: {}", chatId, err.getMessage());
+                        throw new RuntimeException("Telegram sending failed", err);
+                    }
+                    if (response.statusCode() != 200) {
+                        failed.increment();
+                        logger.error("Telegram API error. Status code: {}", response.statusCode());
+                        throw new RuntimeException("Telegram API returned " + response.statusCode());
+                    }
+                    sent.increment();
+                    logger.info("OTP code sent via Telegram to chatId {}", chatId);
+                    return null;
+                });
     }
-}
 
+    /**
+     * Открывает соединение и TLS-сессию с Bot API запросом getMe,
+     * не дожидаясь ответа.
+     */
+    @Override
+    public void warmUp() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(apiBaseUrl + token + "/getMe"))
+                .timeout(requestTimeout)
+                .GET()
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, err) -> {
+                    if (err != null) {
+                        logger.warn("Telegram warm-up failed: {}", err.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Дожидается запросов в полёте, закрывает HttpClient и останавливает его пул потоков:
+     * HttpClient не завершает переданный ему executor сам.
+     */
+    @Override
+    public void close() {
+        httpClient.close();
+        httpExecutor.shutdown();
+    }
+
+    /**
+     * @return снимок счётчиков: запросы в полёте, успешные и неудачные отправки
+     */
+    @Override
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inFlight", maxInFlight - inFlight.availablePermits());
+        m.put("sent", sent.sum());
+        m.put("failed", failed.sum());
+        return m;
+    }
+}
@@ -0,0 +1,47 @@
+package otp.util;
+
+import otp.model.User;
+
+/**
+ * Способ выдачи и проверки токенов авторизации (auth.mode).
+ * <ul>
+ *   <li>SESSION — непрозрачный токен, сессия хранится в памяти процесса (TokenManager);
+ *       токен действителен только на выдавшем его узле, но его можно отозвать досрочно</li>
+ *   <li>JWT — подписанный токен с id и ролью пользователя (JwtUtils); проверяется
+ *       на любом узле без обращения к общему состоянию, действует до истечения срока</li>
+ * </ul>
+ */
+public enum AuthMode {
+    SESSION {
+        @Override
+        public String issue(User user) {
+            return TokenManager.generateToken(user);
+        }
+
+        @Override
+        public User authenticate(String token) {
+            return TokenManager.getUser(token);
+        }
+    },
+    JWT {
+        @Override
+        public String issue(User user) {
+            return JwtUtils.generateToken(user);
+        }
+
+        @Override
+        public User authenticate(String token) {
+            return JwtUtils.verify(token);
+        }
+    };
+
+    /**
+     * Выдаёт токен для аутентифицированного пользователя.
+     */
+    public abstract String issue(User user);
+
+    /**
+     * @return пользователь, которому выдан токен, или null, если токен недействителен/просрочен
+     */
+    public abstract User authenticate(String token);
+}
@@ -0,0 +1,133 @@
+package otp.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченная потокобезопасная карта, записи которой живут до заданного момента.
+ * <p>
+ * Истёкшая запись удаляется при обращении к ней. При заполнении сначала удаляются
+ * все истёкшие записи, затем — произвольные до 90% ёмкости; точный LRU здесь не нужен,
+ * вытесненная запись лишь повторно вычисляется вызывающим.
+ * </p>
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class ExpiringCache<K, V> {
+    private final int maxEntries;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param maxEntries максимальное число записей; 0 отключает кеш
+     */
+    public ExpiringCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return true, если кеш включён
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @return значение неистёкшей записи или null
+     */
+    public V get(K key) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiresAtMs) {
+            if (entries.remove(key, entry)) {
+                expired.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Запоминает значение до момента expiresAtMs (мс от эпохи).
+     */
+    public void put(K key, V value, long expiresAtMs) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            shrink();
+        }
+        entries.put(key, new Entry<>(value, expiresAtMs));
+    }
+
+    /**
+     * @return true, если запись была и удалена
+     */
+    public boolean remove(K key) {
+        return maxEntries > 0 && entries.remove(key) != null;
+    }
+
+    /**
+     * @return снимок счётчиков: размер, попадания, промахи, истёкшие и вытесненные записи
+     */
+    public Map<String, Object> metrics() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("size", entries.size());
+        m.put("capacity", maxEntries);
+        m.put("hits", h);
+        m.put("misses", total - h);
+        m.put("hitRatio", total == 0 ? 0.0 : (double) h / total);
+        m.put("expired", expired.sum());
+        m.put("evicted", evicted.sum());
+        return m;
+    }
+
+    // Удаляет истёкшие записи, а если их мало — произвольные, до 90% ёмкости
+    private void shrink() {
+        long now = System.currentTimeMillis();
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        int removedExpired = 0;
+        for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAtMs <= now) {
+                it.remove();
+                removedExpired++;
+            }
+        }
+        expired.add(removedExpired);
+        int removed = 0;
+        for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext() && entries.size() > target; ) {
+            it.next();
+            it.remove();
+            removed++;
+        }
+        evicted.add(removed);
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAtMs;
+
+        Entry(V value, long expiresAtMs) {
+            this.value = value;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package otp.util;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 public class HttpUtils {
 
+    private static final byte[] ERROR_PREFIX = "{\"error\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR_SUFFIX = "\"}".getBytes(StandardCharsets.UTF_8);
+
+    // Готовые тела для постоянных сообщений об ошибках; таблица только читается
+    private static final Map<String, byte[]> FIXED_ERRORS = new HashMap<>();
+
+    static {
+        for (String message : new String[]{
+                "Method Not Allowed",
+                "Content-Type must be application/json",
+                "Internal server error",
+                "Unauthorized",
+                "Forbidden",
+                "Missing or invalid Authorization header",
+                "Invalid or expired token",
+                "Server is busy, try again later",
+                "Notification queue is full, retry later",
+                "Invalid code",
+                "Code expired",
+                "Code already used",
+                "code is required",
+                "items are required",
+                "Invalid user ID",
+                "Too many requests",
+                "Admin already exists"}) {
+            FIXED_ERRORS.put(message, encodeError(message));
+        }
+    }
+
     // Отправить JSON-ответ с указанным статусом
     public static void sendJsonResponse(HttpExchange exch, int status, String json) throws IOException {
+        sendJsonBytes(exch, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Сериализовать объект сразу в байты и отправить с известной длиной
+    public static void sendJson(HttpExchange exch, int status, Object body) throws IOException {
+        sendJsonBytes(exch, status, JsonUtil.toJsonBytes(body));
+    }
+
+    // Сериализовать объект прямо в поток ответа (chunked), не собирая тело в памяти
+    public static void streamJson(HttpExchange exch, int status, Object body) throws IOException {
         exch.getResponseHeaders().set("Content-Type", "application/json");
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        exch.sendResponseHeaders(status, bytes.length);
+        exch.sendResponseHeaders(status, 0);
         try (OutputStream os = exch.getResponseBody()) {
-            os.write(bytes);
+            JsonUtil.writeJson(os, body);
         }
     }
 
@@ -24,9 +65,25 @@ public class HttpUtils {
 
     // Отправить JSON-ошибку с сообщением
     public static void sendError(HttpExchange exch, int status, String message) throws IOException {
-        String errorJson = String.format("{\"error\":\"%s\"}", message);
-        sendJsonResponse(exch, status, errorJson);
+        byte[] body = message != null ? FIXED_ERRORS.get(message) : null;
+        sendJsonBytes(exch, status, body != null ? body : encodeError(message));
     }
-}
 
+    private static void sendJsonBytes(HttpExchange exch, int status, byte[] bytes) throws IOException {
+        exch.getResponseHeaders().set("Content-Type", "application/json");
+        exch.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exch.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
 
+    // {"error":"..."} с экранированием кавычек и управляющих символов в сообщении
+    private static byte[] encodeError(String message) {
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(String.valueOf(message));
+        byte[] body = new byte[ERROR_PREFIX.length + quoted.length + ERROR_SUFFIX.length];
+        System.arraycopy(ERROR_PREFIX, 0, body, 0, ERROR_PREFIX.length);
+        System.arraycopy(quoted, 0, body, ERROR_PREFIX.length, quoted.length);
+        System.arraycopy(ERROR_SUFFIX, 0, body, ERROR_PREFIX.length + quoted.length, ERROR_SUFFIX.length);
+        return body;
+    }
+}
@@ -1,19 +1,57 @@
 package otp.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
+/**
+ * Сериализация JSON.
+ * <p>
+ * ObjectReader и ObjectWriter неизменяемы и потокобезопасны; читатель для каждого класса DTO
+ * создаётся один раз (контроллеры держат их в static final полях), так что на запрос
+ * не приходится поиск десериализатора в кешах ObjectMapper.
+ * </p>
+ */
 public class JsonUtil {
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    /** Поток ответа закрывает вызывающий, а не Jackson */
+    private static final ObjectWriter WRITER = MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ClassValue<ObjectReader> READERS = new ClassValue<>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return MAPPER.readerFor(type);
+        }
+    };
+
+    /**
+     * @return заранее построенный читатель для класса DTO
+     */
+    public static ObjectReader reader(Class<?> clazz) {
+        return READERS.get(clazz);
+    }
 
     // Парсит JSON-тело запроса в объект указанного класса
     public static <T> T fromJson(InputStream is, Class<T> clazz) throws IOException {
-        return MAPPER.readValue(is, clazz);
+        return READERS.get(clazz).readValue(is);
     }
 
     // Сериализует объект в JSON-строку
     public static String toJson(Object obj) throws IOException {
-        return MAPPER.writeValueAsString(obj);
+        return WRITER.writeValueAsString(obj);
+    }
+
+    // Сериализует объект сразу в UTF-8 байты, минуя промежуточную строку
+    public static byte[] toJsonBytes(Object obj) throws IOException {
+        return WRITER.writeValueAsBytes(obj);
+    }
+
+    // Сериализует объект прямо в поток
+    public static void writeJson(OutputStream os, Object obj) throws IOException {
+        WRITER.writeValue(os, obj);
     }
-}
\ No newline at end of file
+}
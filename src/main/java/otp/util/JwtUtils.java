@@ -1,64 +1,141 @@
 package otp.util;
 
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import otp.config.AppConfig;
+import otp.model.User;
+import otp.model.UserRole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Класс для работы с JWT токенами.
- * Предназначен для генерации и валидации токенов.
+ * <p>
+ * Токен подписывается HMAC-SHA256 и несёт всё, что нужно фильтру аутентификации:
+ * subject — id пользователя, claim "username" и claim "role". Поэтому проверка токена
+ * не требует ни обращения к БД, ни общего состояния между экземплярами сервиса —
+ * достаточно одинакового auth.jwt.secret на всех узлах.
+ * </p>
+ * <p>
+ * Algorithm и JWTVerifier неизменяемы и потокобезопасны, поэтому создаются один раз
+ * при загрузке класса и разделяются всеми потоками. Успешно проверенные токены
+ * запоминаются в VerifiedTokenCache (auth.jwt.cache.maxEntries) до своего истечения,
+ * так что повторные запросы с тем же токеном обходятся без HMAC и разбора claims.
+ * </p>
  */
-public class JwtUtils {
+public final class JwtUtils {
+    private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
+
+    private static final String CLAIM_USERNAME = "username";
+    private static final String CLAIM_ROLE = "role";
+
+    /** Издатель токенов (claim iss) */
+    private static final String ISSUER = AppConfig.get("auth.jwt.issuer", "otp-protection-service");
+    /** Время жизни токена в минутах */
+    private static final long TTL_MINUTES = AppConfig.getLong("auth.jwt.ttlMinutes", 30);
+    /** Допустимое расхождение часов между узлами, секунд */
+    private static final long LEEWAY_SECONDS = AppConfig.getLong("auth.jwt.leewaySeconds", 5);
 
-    // Секретный ключ для подписи токенов
-    private static final String SECRET_KEY = "mySecretKey";
+    private static final Algorithm ALGORITHM = Algorithm.HMAC256(secret());
+    private static final JWTVerifier VERIFIER = JWT.require(ALGORITHM)
+            .withIssuer(ISSUER)
+            .acceptLeeway(LEEWAY_SECONDS)
+            .build();
+    private static final VerifiedTokenCache CACHE =
+            new VerifiedTokenCache(AppConfig.getInt("auth.jwt.cache.maxEntries", 100_000));
+
+    private JwtUtils() { /* запрет создания экземпляров */ }
 
-    // Генерация JWT токена
     /**
-     * Генерирует JWT токен для указанного пользователя.
+     * Генерирует подписанный токен для пользователя.
      *
-     * @param username Имя пользователя
-     * @return Токен
+     * @param user пользователь (id, username, role)
+     * @return токен
      */
-    public static String generateToken(String username) {
+    public static String generateToken(User user) {
+        long now = System.currentTimeMillis();
         return JWT.create()
-                .withSubject(username)
-                .withIssuedAt(new Date())
-                .withExpiresAt(new Date(System.currentTimeMillis() + 3600000)) // Токен действует 1 час
-                .sign(Algorithm.HMAC256(SECRET_KEY)); // Подпись токена
+                .withIssuer(ISSUER)
+                .withSubject(String.valueOf(user.getId()))
+                .withClaim(CLAIM_USERNAME, user.getUsername())
+                .withClaim(CLAIM_ROLE, user.getRole().name())
+                .withIssuedAt(new Date(now))
+                .withExpiresAt(new Date(now + TimeUnit.MINUTES.toMillis(TTL_MINUTES)))
+                .sign(ALGORITHM);
     }
 
-    // Валидация токена
     /**
-     * Проверяет, действителен ли токен.
+     * Проверяет подпись, издателя и срок действия токена и восстанавливает из него пользователя.
      *
-     * @param token Токен
-     * @return true, если токен валиден, иначе false
+     * @param token токен
+     * @return пользователь без хеша пароля или null, если токен недействителен
      */
-    public static boolean validateToken(String token) {
+    public static User verify(String token) {
+        User cached = CACHE.get(token);
+        if (cached != null) {
+            return cached;
+        }
         try {
-            JWT.require(Algorithm.HMAC256(SECRET_KEY))
-                    .build()
-                    .verify(token); // Проверка подписи и срока действия
-            return true;
-        } catch (Exception e) {
-            return false; // Если токен невалиден
+            DecodedJWT jwt = VERIFIER.verify(token);
+            String role = jwt.getClaim(CLAIM_ROLE).asString();
+            String username = jwt.getClaim(CLAIM_USERNAME).asString();
+            if (jwt.getSubject() == null || role == null || username == null) {
+                logger.debug("JWT validation failed: required claims are missing");
+                return null;
+            }
+            User user = new User(Long.valueOf(jwt.getSubject()), username, null, UserRole.valueOf(role));
+            if (jwt.getExpiresAt() != null) {
+                CACHE.put(token, user, jwt.getExpiresAt().getTime());
+            }
+            return user;
+        } catch (JWTVerificationException | IllegalArgumentException e) {
+            logger.debug("JWT validation failed: {}", e.getMessage());
+            return null;
         }
     }
 
-    // Извлечение имени пользователя из токена
     /**
-     * Извлекает имя пользователя из токена.
+     * Проверяет, действителен ли токен.
      *
      * @param token Токен
-     * @return Имя пользователя
+     * @return true, если токен валиден, иначе false
+     */
+    public static boolean validateToken(String token) {
+        return verify(token) != null;
+    }
+
+    /**
+     * @return снимок счётчиков кеша проверенных токенов
      */
-    public static String extractUsername(String token) {
-        DecodedJWT decodedJWT = JWT.require(Algorithm.HMAC256(SECRET_KEY))
-                .build()
-                .verify(token); // Верификация токена
-        return decodedJWT.getSubject(); // Возвращает имя пользователя
+    public static Map<String, Object> metrics() {
+        return CACHE.metrics();
+    }
+
+    /**
+     * @return true, если ключ подписи задан в конфигурации
+     */
+    public static boolean isSecretConfigured() {
+        String configured = AppConfig.get("auth.jwt.secret");
+        return configured != null && !configured.isBlank();
     }
-}
 
+    // Ключ из конфигурации; без него — случайный ключ процесса (токены других узлов не примутся)
+    private static byte[] secret() {
+        if (isSecretConfigured()) {
+            return AppConfig.get("auth.jwt.secret").getBytes(StandardCharsets.UTF_8);
+        }
+        logger.warn("auth.jwt.secret is not set, signing tokens with a random per-process key");
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
@@ -0,0 +1,44 @@
+package otp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Реестр метрик компонентов сервиса.
+ * Компоненты регистрируют поставщика снимка своих счётчиков под уникальным именем,
+ * а snapshot() собирает все снимки для отдачи через GET /admin/metrics.
+ */
+public final class MetricsRegistry {
+    /** Хранилище: имя компонента → поставщик снимка метрик */
+    private static final Map<String, Supplier<Map<String, Object>>> sources = new ConcurrentSkipListMap<>();
+
+    private MetricsRegistry() { /* запрет создания экземпляров */ }
+
+    /**
+     * Регистрирует (или заменяет) источник метрик.
+     * @param name     имя раздела в итоговом снимке
+     * @param supplier функция, возвращающая текущие значения счётчиков
+     */
+    public static void register(String name, Supplier<Map<String, Object>> supplier) {
+        sources.put(name, supplier);
+    }
+
+    /**
+     * Удаляет источник метрик.
+     * @param name имя раздела
+     */
+    public static void unregister(String name) {
+        sources.remove(name);
+    }
+
+    /**
+     * @return снимок метрик всех зарегистрированных компонентов
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        sources.forEach((name, supplier) -> result.put(name, supplier.get()));
+        return result;
+    }
+}
@@ -3,11 +3,16 @@ package otp.util;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Утиль для хеширования паролей и проверки совпадения raw-пароля с сохранённым хешем.
+ * <p>
+ * Несолёный SHA-256 оставлен только для проверки старых хешей: новые пароли хешируются
+ * через PasswordHasher (PasswordService), а старый хеш заменяется при успешном логине.
+ * </p>
  */
 public final class PasswordEncoder {
     private static final Logger logger = LoggerFactory.getLogger(PasswordEncoder.class);
@@ -43,16 +48,13 @@ public final class PasswordEncoder {
         if (storedHash == null || rawPassword == null) {
             return false;
         }
-        return hash(rawPassword).equalsIgnoreCase(storedHash);
+        byte[] expected = hash(rawPassword).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, storedHash.toLowerCase().getBytes(StandardCharsets.US_ASCII));
     }
 
     // Помощник: перевод массива байт в hex
     private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
+        return HexFormat.of().formatHex(bytes);
     }
 }
 
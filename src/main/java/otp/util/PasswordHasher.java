@@ -0,0 +1,36 @@
+package otp.util;
+
+/**
+ * Алгоритм хеширования паролей.
+ * <p>
+ * Хеш хранится в самоописывающем формате: в строке закодированы идентификатор алгоритма,
+ * параметры стоимости и соль, поэтому параметры можно менять без миграции —
+ * старые хеши продолжают проверяться, а needsRehash() подсказывает, что хеш пора пересчитать.
+ * </p>
+ */
+public interface PasswordHasher {
+
+    /**
+     * Хеширует пароль со случайной солью и текущими параметрами.
+     *
+     * @param rawPassword исходный пароль
+     * @return закодированный хеш
+     */
+    String hash(String rawPassword);
+
+    /**
+     * @param encoded сохранённый хеш
+     * @return true, если хеш записан в формате этого алгоритма
+     */
+    boolean supports(String encoded);
+
+    /**
+     * Проверяет пароль по хешу в формате этого алгоритма (сравнение за постоянное время).
+     */
+    boolean matches(String rawPassword, String encoded);
+
+    /**
+     * @return true, если хеш посчитан с параметрами слабее текущих
+     */
+    boolean needsRehash(String encoded);
+}
@@ -0,0 +1,105 @@
+package otp.util;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256 с солью и настраиваемым числом итераций.
+ * <p>
+ * Формат хеша: {@code $pbkdf2-sha256$i=<итерации>$<соль base64>$<ключ base64>}.
+ * </p>
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param iterations число итераций для новых хешей
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("PBKDF2 iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash(String rawPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] key = derive(rawPassword, salt, iterations);
+        return PREFIX + "i=" + iterations + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(key);
+    }
+
+    @Override
+    public boolean supports(String encoded) {
+        return encoded != null && encoded.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean matches(String rawPassword, String encoded) {
+        if (rawPassword == null || !supports(encoded)) {
+            return false;
+        }
+        Parsed parsed = parse(encoded);
+        if (parsed == null) {
+            return false;
+        }
+        byte[] actual = derive(rawPassword, parsed.salt, parsed.iterations);
+        return MessageDigest.isEqual(actual, parsed.key);
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+        Parsed parsed = supports(encoded) ? parse(encoded) : null;
+        return parsed == null || parsed.iterations < iterations;
+    }
+
+    // Разбирает "i=N$salt$key" после префикса; null при повреждённом хеше
+    private static Parsed parse(String encoded) {
+        String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3 || !parts[0].startsWith("i=")) {
+            return null;
+        }
+        try {
+            return new Parsed(Integer.parseInt(parts[0].substring(2)), DECODER.decode(parts[1]), DECODER.decode(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] derive(String rawPassword, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static final class Parsed {
+        final int iterations;
+        final byte[] salt;
+        final byte[] key;
+
+        Parsed(int iterations, byte[] salt, byte[] key) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.key = key;
+        }
+    }
+}
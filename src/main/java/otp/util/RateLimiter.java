@@ -0,0 +1,119 @@
+package otp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничитель частоты запросов по ключу (пользователь, адрес клиента).
+ * <p>
+ * Каждый ключ — корзина токенов в форме GCRA: вместо числа токенов хранится одно
+ * значение, «теоретическое время прихода» следующего запроса (TAT). Запрос пропускается,
+ * если TAT опережает текущее время не больше чем на (burst - 1) интервалов, и сдвигает TAT
+ * на один интервал одной операцией CAS, без блокировок. Корзина, у которой TAT в прошлом,
+ * полна и ничем не отличается от новой, поэтому sweep() (фоновый поток RateLimits)
+ * удаляет такие ключи. Число ключей ограничено maxKeys: пока места нет, все новые ключи
+ * делят одну общую корзину переполнения (счётчик overflow). Поток случайных адресов
+ * так упирается в один общий лимит, не заставляя потоки запросов перебирать карту
+ * и не отнимая корзины у уже известных клиентов.
+ * </p>
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxKeys;
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    /** Общая корзина для новых ключей, пока карта заполнена */
+    private final AtomicLong overflowBucket = new AtomicLong(System.nanoTime());
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder overflow = new LongAdder();
+    private final LongAdder swept = new LongAdder();
+
+    /**
+     * @param perMinute допустимое число запросов в минуту на ключ
+     * @param burst     сколько запросов подряд допускается сверх равномерного темпа
+     * @param maxKeys   максимальное число отслеживаемых ключей
+     */
+    public RateLimiter(int perMinute, int burst, int maxKeys) {
+        if (perMinute <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate limit and burst must be positive");
+        }
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / perMinute;
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Пытается пропустить запрос с ключом key.
+     *
+     * @return 0, если запрос пропущен, иначе через сколько наносекунд появится токен
+     */
+    public long tryAcquire(String key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Пытается пропустить запрос стоимостью permits токенов (например, пакет из permits элементов).
+     * Запрос пропускается, если в корзине есть хотя бы один токен, и списывает все permits
+     * в долг: пакет больше burst проходит по полной корзине, а следующий запрос ключа
+     * ждёт, пока долг не восполнится в темпе perMinute.
+     *
+     * @return 0, если запрос пропущен, иначе через сколько наносекунд появится токен
+     */
+    public long tryAcquire(String key, int permits) {
+        long now = System.nanoTime();
+        AtomicLong tat = buckets.get(key);
+        if (tat == null) {
+            if (buckets.size() >= maxKeys) {
+                overflow.increment();
+                tat = overflowBucket;
+            } else {
+                tat = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+        }
+        while (true) {
+            long current = tat.get();
+            long base = Math.max(current, now);
+            long wait = base - now - toleranceNanos;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (tat.compareAndSet(current, base + intervalNanos * permits)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Удаляет ключи, чьи корзины уже полностью восполнились.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        int before = buckets.size();
+        buckets.values().removeIf(tat -> tat.get() - now <= 0);
+        swept.add(Math.max(0, before - buckets.size()));
+    }
+
+    /**
+     * @return снимок счётчиков: ключи, пропущенные и отклонённые запросы, запросы через общую корзину
+     */
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("perMinute", TimeUnit.MINUTES.toNanos(1) / intervalNanos);
+        m.put("burst", toleranceNanos / intervalNanos + 1);
+        m.put("keys", buckets.size());
+        m.put("maxKeys", maxKeys);
+        m.put("allowed", allowed.sum());
+        m.put("limited", limited.sum());
+        m.put("overflow", overflow.sum());
+        m.put("swept", swept.sum());
+        return m;
+    }
+}
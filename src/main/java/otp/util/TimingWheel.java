@@ -0,0 +1,140 @@
+package otp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров.
+ * <p>
+ * Уровень i состоит из wheelSize ячеек по tickMs * wheelSize^i миллисекунд. Элемент кладётся
+ * в ячейку самого нижнего уровня, чей охват покрывает его срок. Каждый тик обрабатывает
+ * одну ячейку нижнего уровня; когда уровень делает полный оборот, очередная ячейка
+ * уровня выше раскладывается по нижним уровням. Добавление и обработка элемента — O(1)
+ * независимо от числа ожидающих элементов. Сроки дальше охвата верхнего уровня
+ * хранятся отдельно и перераскладываются при каждом его обороте.
+ * </p>
+ * <p>
+ * Класс не потокобезопасен: add() и advanceTo() вызываются из одного потока.
+ * </p>
+ *
+ * @param <T> тип элемента
+ */
+public class TimingWheel<T> {
+    private final long tickMs;
+    private final int wheelSize;
+    private final List<Timer<T>>[][] levels;
+    private final long[] levelSpan;
+    private List<Timer<T>> overflow = new ArrayList<>();
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMs    длительность тика в миллисекундах
+     * @param wheelSize число ячеек на уровне
+     * @param levels    число уровней
+     * @param startMs   текущее время в миллисекундах
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMs, int wheelSize, int levels, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.levels = new List[levels][wheelSize];
+        this.levelSpan = new long[levels + 1];
+        levelSpan[0] = 1;
+        for (int i = 1; i <= levels; i++) {
+            levelSpan[i] = Math.multiplyExact(levelSpan[i - 1], wheelSize);
+        }
+        for (List<Timer<T>>[] level : this.levels) {
+            for (int s = 0; s < wheelSize; s++) {
+                level[s] = new ArrayList<>();
+            }
+        }
+        this.currentTick = startMs / tickMs;
+    }
+
+    /**
+     * Добавляет элемент со сроком deadlineMs.
+     *
+     * @return false, если срок уже наступил (элемент не добавлен, его нужно обработать сразу)
+     */
+    public boolean add(long deadlineMs, T item) {
+        long deadlineTick = (deadlineMs + tickMs - 1) / tickMs;
+        if (deadlineTick <= currentTick) {
+            return false;
+        }
+        place(new Timer<>(deadlineTick, item));
+        size++;
+        return true;
+    }
+
+    /**
+     * Продвигает колесо до nowMs, передавая в expired элементы с наступившим сроком.
+     */
+    public void advanceTo(long nowMs, Consumer<T> expired) {
+        long targetTick = nowMs / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            int slot = (int) (currentTick % wheelSize);
+            List<Timer<T>> due = levels[0][slot];
+            if (!due.isEmpty()) {
+                levels[0][slot] = new ArrayList<>();
+                for (Timer<T> t : due) {
+                    size--;
+                    expired.accept(t.item);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return число ожидающих элементов
+     */
+    public int size() {
+        return size;
+    }
+
+    // На границе оборота уровня i-1 раскладываем очередную ячейку уровня i по нижним уровням
+    private void cascade() {
+        for (int level = 1; level <= levels.length; level++) {
+            if (currentTick % levelSpan[level] != 0) {
+                return;
+            }
+            List<Timer<T>> bucket;
+            if (level == levels.length) {
+                bucket = overflow;
+                overflow = new ArrayList<>();
+            } else {
+                int slot = (int) ((currentTick / levelSpan[level]) % wheelSize);
+                bucket = levels[level][slot];
+                levels[level][slot] = new ArrayList<>();
+            }
+            for (Timer<T> t : bucket) {
+                place(t);
+            }
+        }
+    }
+
+    private void place(Timer<T> t) {
+        long delta = t.deadlineTick - currentTick;
+        for (int level = 0; level < levels.length; level++) {
+            if (delta < levelSpan[level + 1]) {
+                int slot = (int) ((t.deadlineTick / levelSpan[level]) % wheelSize);
+                levels[level][slot].add(t);
+                return;
+            }
+        }
+        overflow.add(t);
+    }
+
+    private static final class Timer<T> {
+        final long deadlineTick;
+        final T item;
+
+        Timer(long deadlineTick, T item) {
+            this.deadlineTick = deadlineTick;
+            this.item = item;
+        }
+    }
+}
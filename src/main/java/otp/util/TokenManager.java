@@ -6,34 +6,112 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Утиль для генерации, хранения и валидации токенов авторизации.
+ * <p>
+ * Хранилище ограничено auth.session.maxSessions: при переполнении вытесняется сессия
+ * с ближайшим сроком истечения (самая старая). Сессии упорядочены по сроку, и фоновый
+ * поток раз в auth.session.sweepIntervalMs удаляет истёкшие с головы этого порядка,
+ * не просматривая остальные. Индекс по userId позволяет отозвать все сессии пользователя.
+ * Сам токен в журнал не пишется. Параметры и фоновый поток задаются start() и нужны
+ * только в режиме auth.mode=session.
+ * </p>
  */
 public final class TokenManager {
     private static final Logger logger = LoggerFactory.getLogger(TokenManager.class);
 
     /** Хранилище: токен → информация о пользователе и времени истечения */
     private static final Map<String, TokenInfo> tokens = new ConcurrentHashMap<>();
+    /** Те же сессии в порядке истечения */
+    private static final ConcurrentSkipListSet<TokenInfo> byExpiry = new ConcurrentSkipListSet<>();
+    /** userId → токены пользователя */
+    private static final Map<Long, Set<String>> byUser = new ConcurrentHashMap<>();
 
     /** Время жизни токена в минутах */
-    private static final long TTL_MINUTES = 30;
+    private static volatile long ttlMinutes = 30;
+    /** Максимальное число живых сессий */
+    private static volatile int maxSessions = 100_000;
+    private static ScheduledExecutorService sweeper;
+
+    private static final AtomicInteger live = new AtomicInteger();
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final LongAdder issued = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+    private static final LongAdder expired = new LongAdder();
+    private static final LongAdder revoked = new LongAdder();
 
     private TokenManager() { /* запрет создания экземпляров */ }
 
+    /**
+     * Задаёт параметры сессий и запускает фоновое удаление истёкших.
+     * @param ttlMinutes      время жизни токена в минутах
+     * @param maxSessions     максимальное число живых сессий
+     * @param sweepIntervalMs период удаления истёкших сессий
+     */
+    public static synchronized void start(long ttlMinutes, int maxSessions, long sweepIntervalMs) {
+        TokenManager.ttlMinutes = ttlMinutes;
+        TokenManager.maxSessions = maxSessions;
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(TokenManager::sweep, sweepIntervalMs, sweepIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Останавливает фоновое удаление истёкших сессий */
+    public static synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
     /**
      * Генерирует новый токен для пользователя и сохраняет его в памяти.
+     * При достижении лимита вытесняет самые старые сессии.
      * @param user объект пользователя
      * @return строковое представление токена
      */
     public static String generateToken(User user) {
         String token = UUID.randomUUID().toString();
-        Instant expiry = Instant.now().plus(TTL_MINUTES, ChronoUnit.MINUTES);
-        tokens.put(token, new TokenInfo(user, expiry));
-        logger.info("Generated token {} for user {} (expires at {})", token, user.getUsername(), expiry);
+        Instant expiry = Instant.now().plus(ttlMinutes, ChronoUnit.MINUTES);
+        TokenInfo info = new TokenInfo(token, user, expiry, sequence.incrementAndGet());
+        tokens.put(token, info);
+        byExpiry.add(info);
+        byUser.compute(user.getId(), (k, userTokens) -> {
+            Set<String> target = userTokens != null ? userTokens : ConcurrentHashMap.newKeySet();
+            target.add(token);
+            return target;
+        });
+        issued.increment();
+        live.incrementAndGet();
+        while (live.get() > maxSessions) {
+            TokenInfo oldest = byExpiry.pollFirst();
+            if (oldest == null) {
+                break;
+            }
+            if (remove(oldest.token) != null) {
+                evicted.increment();
+            }
+        }
+        logger.info("Generated token for user {} (expires at {})", user.getUsername(), expiry);
         return token;
     }
 
@@ -43,17 +121,7 @@ public final class TokenManager {
      * @return true, если токен валиден
      */
     public static boolean validate(String token) {
-        TokenInfo info = tokens.get(token);
-        if (info == null) {
-            logger.warn("Token validation failed: token not found");
-            return false;
-        }
-        if (Instant.now().isAfter(info.expiry)) {
-            tokens.remove(token);
-            logger.warn("Token {} expired at {}, removed from store", token, info.expiry);
-            return false;
-        }
-        return true;
+        return lookup(token) != null;
     }
 
     /**
@@ -62,10 +130,8 @@ public final class TokenManager {
      * @return объект User или null, если токен некорректен/просрочен
      */
     public static User getUser(String token) {
-        if (!validate(token)) {
-            return null;
-        }
-        return tokens.get(token).user;
+        TokenInfo info = lookup(token);
+        return info != null ? info.user : null;
     }
 
     /**
@@ -73,19 +139,119 @@ public final class TokenManager {
      * @param token строка токена
      */
     public static void revoke(String token) {
-        if (tokens.remove(token) != null) {
-            logger.info("Token {} revoked", token);
+        TokenInfo info = remove(token);
+        if (info != null) {
+            revoked.increment();
+            logger.info("Token of user {} revoked", info.user.getUsername());
+        }
+    }
+
+    /**
+     * Отзывает все сессии пользователя; стоимость пропорциональна числу его токенов.
+     * @param userId идентификатор пользователя
+     * @return число отозванных сессий
+     */
+    public static int revokeAllForUser(Long userId) {
+        Set<String> userTokens = byUser.remove(userId);
+        if (userTokens == null) {
+            return 0;
+        }
+        int count = 0;
+        for (String token : userTokens) {
+            if (remove(token) != null) {
+                count++;
+            }
+        }
+        revoked.add(count);
+        logger.info("Revoked {} sessions of user {}", count, userId);
+        return count;
+    }
+
+    /**
+     * @return снимок счётчиков: живые сессии, выданные, вытесненные, истёкшие и отозванные
+     */
+    public static Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("live", live.get());
+        m.put("capacity", maxSessions);
+        m.put("users", byUser.size());
+        m.put("issued", issued.sum());
+        m.put("evicted", evicted.sum());
+        m.put("expired", expired.sum());
+        m.put("revoked", revoked.sum());
+        return m;
+    }
+
+    private static TokenInfo lookup(String token) {
+        TokenInfo info = tokens.get(token);
+        if (info == null) {
+            logger.debug("Token validation failed: token not found");
+            return null;
+        }
+        if (Instant.now().isAfter(info.expiry)) {
+            if (remove(token) != null) {
+                expired.increment();
+            }
+            logger.debug("Token of user {} expired at {}, removed from store", info.user.getUsername(), info.expiry);
+            return null;
+        }
+        return info;
+    }
+
+    // Удаляет сессию из всех структур; остальное делает только тот, кто удалил из tokens
+    private static TokenInfo remove(String token) {
+        TokenInfo info = tokens.remove(token);
+        if (info != null) {
+            byExpiry.remove(info);
+            byUser.computeIfPresent(info.user.getId(), (k, userTokens) -> {
+                userTokens.remove(token);
+                return userTokens.isEmpty() ? null : userTokens;
+            });
+            live.decrementAndGet();
+        }
+        return info;
+    }
+
+    // Снимает истёкшие сессии с головы порядка истечения
+    private static void sweep() {
+        try {
+            Instant now = Instant.now();
+            int removed = 0;
+            for (TokenInfo head : byExpiry) {
+                if (head.expiry.isAfter(now)) {
+                    break;
+                }
+                if (remove(head.token) != null) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                expired.add(removed);
+                logger.debug("Session sweeper removed {} expired sessions", removed);
+            }
+        } catch (Exception e) {
+            logger.error("Error in session sweeper", e);
         }
     }
 
     /** Внутренний класс для хранения информации о токене */
-    private static class TokenInfo {
+    private static class TokenInfo implements Comparable<TokenInfo> {
+        final String token;
         final User user;
         final Instant expiry;
+        final long seq;
 
-        TokenInfo(User user, Instant expiry) {
+        TokenInfo(String token, User user, Instant expiry, long seq) {
+            this.token = token;
             this.user = user;
             this.expiry = expiry;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(TokenInfo other) {
+            int byTime = expiry.compareTo(other.expiry);
+            return byTime != 0 ? byTime : Long.compare(seq, other.seq);
         }
     }
 }
@@ -0,0 +1,65 @@
+package otp.util;
+
+import otp.model.User;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Ограниченный кеш уже проверенных токенов.
+ * <p>
+ * Ключ — SHA-256 от токена (сами токены в памяти не хранятся), значение — восстановленный
+ * из токена пользователь; запись живёт до истечения токена (ExpiringCache). Пока токен
+ * не истёк, повторная проверка подписи и разбор claims не нужны. Кешируются только успешно
+ * проверенные токены, так что поток поддельных токенов кеш не вытесняет.
+ * </p>
+ */
+public class VerifiedTokenCache {
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final ExpiringCache<String, User> cache;
+
+    /**
+     * @param maxEntries максимальное число записей; 0 отключает кеш
+     */
+    public VerifiedTokenCache(int maxEntries) {
+        this.cache = new ExpiringCache<>(maxEntries);
+    }
+
+    /**
+     * @return пользователь из ранее проверенного и ещё не истёкшего токена или null
+     */
+    public User get(String token) {
+        return cache.isEnabled() ? cache.get(digest(token)) : null;
+    }
+
+    /**
+     * Запоминает успешно проверенный токен до момента его истечения.
+     */
+    public void put(String token, User user, long expiresAtMs) {
+        if (cache.isEnabled()) {
+            cache.put(digest(token), user, expiresAtMs);
+        }
+    }
+
+    /**
+     * @return снимок счётчиков: размер, попадания, промахи, истёкшие и вытесненные записи
+     */
+    public Map<String, Object> metrics() {
+        return cache.metrics();
+    }
+
+    private static String digest(String token) {
+        byte[] hash = SHA256.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+}
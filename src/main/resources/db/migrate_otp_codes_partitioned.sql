@@ -0,0 +1,56 @@
+-- Однократный перевод существующей несекционированной таблицы otp_codes на секционирование.
+-- Выполнять из каталога db в psql при остановленном сервисе:
+--   psql -d otp_service -f migrate_otp_codes_partitioned.sql
+
+BEGIN;
+
+-- Старая таблица и её индексы уступают имена новой
+ALTER TABLE otp_codes RENAME TO otp_codes_legacy;
+ALTER INDEX IF EXISTS otp_codes_pkey RENAME TO otp_codes_legacy_pkey;
+ALTER INDEX IF EXISTS idx_otp_codes_code RENAME TO idx_otp_codes_legacy_code;
+ALTER INDEX IF EXISTS idx_otp_codes_active_lookup RENAME TO idx_otp_codes_legacy_active_lookup;
+ALTER INDEX IF EXISTS idx_otp_codes_user_operation RENAME TO idx_otp_codes_legacy_user_operation;
+ALTER INDEX IF EXISTS idx_otp_codes_active_created_at RENAME TO idx_otp_codes_legacy_active_created_at;
+
+\ir schema.sql
+
+-- Из нескольких ACTIVE-кодов одной операции активным остаётся только последний:
+-- иначе не создастся уникальный индекс активных кодов операции
+UPDATE otp_codes_legacy l SET status = 'EXPIRED'
+WHERE l.status = 'ACTIVE' AND l.operation_id IS NOT NULL
+  AND EXISTS (SELECT 1 FROM otp_codes_legacy n
+              WHERE n.user_id = l.user_id AND n.operation_id = l.operation_id
+                AND n.status = 'ACTIVE' AND (n.created_at, n.id) > (l.created_at, l.id));
+
+-- Суточные секции от самой старой записи до завтрашнего дня включительно
+-- вместе с уникальным индексом активных кодов операции (как у OtpCodePartitionManager)
+DO $$
+DECLARE
+    d DATE;
+    p TEXT;
+BEGIN
+    FOR d IN
+        SELECT generate_series(
+                   COALESCE((SELECT MIN(created_at)::date FROM otp_codes_legacy), CURRENT_DATE),
+                   CURRENT_DATE + 1,
+                   INTERVAL '1 day')::date
+    LOOP
+        p := 'otp_codes_p' || to_char(d, 'YYYYMMDD');
+        EXECUTE format(
+            'CREATE TABLE IF NOT EXISTS %I PARTITION OF otp_codes FOR VALUES FROM (%L) TO (%L)',
+            p, d::timestamp, (d + 1)::timestamp);
+        EXECUTE format(
+            'CREATE UNIQUE INDEX IF NOT EXISTS %I ON %I (user_id, operation_id) WHERE status = ''ACTIVE''',
+            p || '_active_op_uq', p);
+    END LOOP;
+END $$;
+
+INSERT INTO otp_codes (id, user_id, operation_id, code, status, created_at)
+SELECT id, user_id, operation_id, code, status, created_at FROM otp_codes_legacy;
+
+SELECT setval(pg_get_serial_sequence('otp_codes', 'id'),
+              COALESCE((SELECT MAX(id) FROM otp_codes), 0) + 1, false);
+
+DROP TABLE otp_codes_legacy;
+
+COMMIT;
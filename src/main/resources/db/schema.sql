@@ -12,18 +12,49 @@ CREATE TABLE IF NOT EXISTS users (
 CREATE TABLE IF NOT EXISTS otp_config (
     id          BIGSERIAL PRIMARY KEY,
     length      INT NOT NULL CHECK (length > 0),
-    ttl_seconds INT NOT NULL CHECK (ttl_seconds > 0)
+    ttl_seconds INT NOT NULL CHECK (ttl_seconds > 0),
+    version     BIGINT NOT NULL DEFAULT 0  -- увеличивается при каждом обновлении
 );
 
--- Таблица OTP-кодов
+-- Для существующих баз, созданных до появления колонки version
+ALTER TABLE otp_config ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- Таблица OTP-кодов, секционированная по created_at.
+-- Секции otp_codes_pYYYYMMDD (или otp_codes_pYYYYMMDDHH при почасовой нарезке)
+-- создаются заранее и удаляются целиком по сроку хранения приложением
+-- (OtpCodePartitionManager). Индексы, созданные ниже на родительской таблице,
+-- автоматически создаются в каждой секции.
+-- Перевод существующей несекционированной таблицы: db/migrate_otp_codes_partitioned.sql
 CREATE TABLE IF NOT EXISTS otp_codes (
-    id           BIGSERIAL PRIMARY KEY,
+    id           BIGSERIAL,
     user_id      BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
     operation_id VARCHAR(100),  -- можно привязать к операции/транзакции
     code         VARCHAR(20) NOT NULL,
     status       VARCHAR(10) NOT NULL CHECK (status IN ('ACTIVE','USED','EXPIRED')),
-    created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW()
-);
+    created_at   TIMESTAMP WITHOUT TIME ZONE NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (id, created_at)  -- ключ секционирования обязан входить в первичный ключ
+) PARTITION BY RANGE (created_at);
 
 -- Индекс по полю code для быстрого поиска
 CREATE INDEX IF NOT EXISTS idx_otp_codes_code ON otp_codes(code);
+
+-- Поиск активного кода при валидации: (user_id, operation_id, code) только среди ACTIVE.
+-- Частичный индекс остаётся маленьким независимо от накопленной истории USED/EXPIRED.
+CREATE INDEX IF NOT EXISTS idx_otp_codes_active_lookup
+    ON otp_codes(user_id, operation_id, code)
+    WHERE status = 'ACTIVE';
+
+-- Не больше одного ACTIVE-кода на (user_id, operation_id). На родительской таблице уникальный
+-- индекс невозможен — он обязан включать ключ секционирования created_at. Поэтому вставка
+-- (OtpCodeDaoImpl) берёт pg_advisory_xact_lock по операции и проверяет ACTIVE-коды во всех
+-- секциях; уникальный частичный индекс <секция>_active_op_uq, который OtpCodePartitionManager
+-- создаёт в каждой секции, страхует от записи в обход приложения.
+
+-- Поиск последнего неактивного кода пользователя при отказе в валидации (USED/EXPIRED)
+CREATE INDEX IF NOT EXISTS idx_otp_codes_user_operation
+    ON otp_codes(user_id, operation_id);
+
+-- Выборка порций для уборки просроченных кодов: только ACTIVE, по возрастанию created_at
+CREATE INDEX IF NOT EXISTS idx_otp_codes_active_created_at
+    ON otp_codes(created_at)
+    WHERE status = 'ACTIVE';